@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and filtering the list shown to the user: filling the AppIndex, toggling the system
+ * apps and typing a search query letter by letter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AppIndexBenchmark {
+
+    private final static String[] TYPED = {"k", "ka", "kal", "kale", "kalen", "kalender"};
+
+    @Param({"100", "1000", "10000"})
+    int size;
+
+    private List<SyntheticEntry> apps;
+    private AppIndex<SyntheticEntry> index;
+
+    @Setup
+    public void setup() {
+        FakePackageManager pm = new FakePackageManager(size, 0);
+        apps = new InventoryLoader<FakePackageManager.FakePackage, SyntheticEntry>(
+                SyntheticEntry.packages(pm), 1).load(pm.getInstalledPackages(),
+                Collections.<String, SyntheticEntry>emptyMap(),
+                new InventoryLoader.Listener<SyntheticEntry>() {
+                    @Override
+                    public void onLoaded(final List<SyntheticEntry> batch) {
+                    }
+                });
+        index = new AppIndex<SyntheticEntry>();
+        index.setAll(apps, true);
+    }
+
+    @Benchmark
+    public int setAll() {
+        index.setAll(apps, true);
+        return index.size();
+    }
+
+    @Benchmark
+    public int toggleSystem() {
+        index.setShowSystem(true);
+        index.setShowSystem(false);
+        return index.size();
+    }
+
+    @Benchmark
+    public int typeQuery() {
+        int shown = 0;
+        for (String query : TYPED) {
+            index.setQuery(query);
+            shown += index.size();
+        }
+        index.setQuery("");
+        return shown;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Synthetic inventory standing in for the PackageManager.
+ * <p/>
+ * The packages are generated from a fixed seed, so every run sees the same labels: a mix of
+ * plain, accented and multi-word labels, some of them sharing the same label, and about a third
+ * of them system apps. Loading a label waits for the given latency, as reading the resources of
+ * an app does on a device.
+ */
+class FakePackageManager {
+
+    /**
+     * An installed package, like PackageInfo with its ApplicationInfo
+     */
+    static class FakePackage {
+        final String packageName;
+        final String label;
+        final boolean system;
+        final int versionCode;
+
+        FakePackage(final String packageName, final String label, final boolean system,
+                    final int versionCode) {
+            this.packageName = packageName;
+            this.label = label;
+            this.system = system;
+            this.versionCode = versionCode;
+        }
+    }
+
+    private final static String[] WORDS =
+            {"Mail", "Kamera", "Galerie", "M\u00fasica", "\u00dcbersetzer", "Notes", "Wetter",
+                    "Caf\u00e9", "Map", "\u00c9diteur", "Clock", "Files", "Browser", "Kalender",
+                    "T\u00e9l\u00e9", "Chat", "Radio", "Scanner", "Fitness", "Bank"};
+    private final static String[] VENDORS =
+            {"com.android", "com.google.android", "de.example", "org.sample", "net.vendor"};
+
+    private final List<FakePackage> packages;
+    private final long latencyNanos;
+
+    /**
+     * @param size          the number of installed packages
+     * @param latencyMicros the time loading a label takes
+     */
+    FakePackageManager(final int size, final long latencyMicros) {
+        Random random = new Random(size);
+        packages = new ArrayList<FakePackage>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder label = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            for (int words = random.nextInt(3); words > 0; words--) {
+                label.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            String packageName = VENDORS[random.nextInt(VENDORS.length)] + ".app" + i;
+            packages.add(new FakePackage(packageName, label.toString(), random.nextInt(3) == 0,
+                    1 + random.nextInt(100)));
+        }
+        latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    }
+
+    /**
+     * @return all installed packages
+     */
+    List<FakePackage> getInstalledPackages() {
+        return new ArrayList<FakePackage>(packages);
+    }
+
+    /**
+     * @param pkg the package
+     * @return the label of the package, after waiting for the label latency
+     */
+    String loadLabel(final FakePackage pkg) {
+        if (latencyNanos > 0) LockSupport.parkNanos(latencyNanos);
+        return pkg.label;
+    }
+}
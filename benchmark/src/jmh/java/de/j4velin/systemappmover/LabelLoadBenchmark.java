@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading all labels sequentially, as before, compared to loading them with several threads.
+ * Every iteration is a first start without a snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Measurement(iterations = 20)
+public class LabelLoadBenchmark {
+
+    @Param({"100", "1000"})
+    int size;
+
+    /**
+     * Time to load a single label in microseconds
+     */
+    @Param({"50", "500"})
+    long latency;
+
+    /**
+     * 1 loads the labels sequentially
+     */
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    private List<FakePackageManager.FakePackage> installed;
+    private InventoryLoader<FakePackageManager.FakePackage, SyntheticEntry> loader;
+
+    @Setup
+    public void setup() {
+        FakePackageManager pm = new FakePackageManager(size, latency);
+        installed = pm.getInstalledPackages();
+        loader = new InventoryLoader<FakePackageManager.FakePackage, SyntheticEntry>(
+                SyntheticEntry.packages(pm), threads);
+    }
+
+    @Benchmark
+    public List<SyntheticEntry> allLabels() {
+        return loader.load(installed, Collections.<String, SyntheticEntry>emptyMap(),
+                new InventoryLoader.Listener<SyntheticEntry>() {
+                    @Override
+                    public void onLoaded(final List<SyntheticEntry> batch) {
+                    }
+                });
+    }
+}
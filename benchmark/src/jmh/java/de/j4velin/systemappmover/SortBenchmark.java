@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting the app list with the comparator used before, which loaded both labels for every
+ * comparison, compared to loading every label once and sorting on collation keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SortBenchmark {
+
+    @Param({"100", "1000"})
+    int size;
+
+    /**
+     * Time to load a single label in microseconds
+     */
+    @Param({"0", "20"})
+    long latency;
+
+    private FakePackageManager pm;
+    private List<FakePackageManager.FakePackage> installed;
+    private InventoryLoader<FakePackageManager.FakePackage, SyntheticEntry> loader;
+
+    @Setup
+    public void setup() {
+        pm = new FakePackageManager(size, latency);
+        installed = pm.getInstalledPackages();
+        loader = new InventoryLoader<FakePackageManager.FakePackage, SyntheticEntry>(
+                SyntheticEntry.packages(pm), 1);
+    }
+
+    @Benchmark
+    public List<FakePackageManager.FakePackage> labelPerComparison() {
+        List<FakePackageManager.FakePackage> apps = pm.getInstalledPackages();
+        Collections.sort(apps, new Comparator<FakePackageManager.FakePackage>() {
+            public int compare(final FakePackageManager.FakePackage app1,
+                               final FakePackageManager.FakePackage app2) {
+                return pm.loadLabel(app1).toLowerCase(Locale.getDefault())
+                        .compareTo(pm.loadLabel(app2).toLowerCase(Locale.getDefault()));
+            }
+        });
+        return apps;
+    }
+
+    @Benchmark
+    public List<SyntheticEntry> collationKeys() {
+        return loader.load(installed, Collections.<String, SyntheticEntry>emptyMap(),
+                new InventoryLoader.Listener<SyntheticEntry>() {
+                    @Override
+                    public void onLoaded(final List<SyntheticEntry> batch) {
+                    }
+                });
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entry for a FakePackage, created like AppEntry: a collation key to sort by the label and the
+ * search text of SearchText
+ */
+class SyntheticEntry implements AppIndex.Item<SyntheticEntry> {
+
+    final FakePackageManager.FakePackage pkg;
+    private final CollationKey key;
+    private final String searchText;
+
+    private SyntheticEntry(final FakePackageManager.FakePackage pkg, final String label,
+                           final Collator collator) {
+        this.pkg = pkg;
+        key = collator.getCollationKey(label);
+        searchText = SearchText.create(label, pkg.packageName);
+    }
+
+    /**
+     * @return InventoryLoader access to the packages of the given package manager
+     */
+    static InventoryLoader.Packages<FakePackageManager.FakePackage, SyntheticEntry> packages(
+            final FakePackageManager pm) {
+        final ThreadLocal<Collator> collators = new ThreadLocal<Collator>() {
+            @Override
+            protected Collator initialValue() {
+                Collator collator = Collator.getInstance();
+                collator.setStrength(Collator.SECONDARY);
+                return collator;
+            }
+        };
+        return new InventoryLoader.Packages<FakePackageManager.FakePackage, SyntheticEntry>() {
+            @Override
+            public String getPackageName(final FakePackageManager.FakePackage pkg) {
+                return pkg.packageName;
+            }
+
+            @Override
+            public SyntheticEntry update(final SyntheticEntry known,
+                                         final FakePackageManager.FakePackage pkg) {
+                return known.pkg.versionCode == pkg.versionCode ? known : null;
+            }
+
+            @Override
+            public SyntheticEntry load(final FakePackageManager.FakePackage pkg) {
+                return new SyntheticEntry(pkg, pm.loadLabel(pkg), collators.get());
+            }
+        };
+    }
+
+    /**
+     * @return the given entries by package name, as the AppPicker reads them from the snapshot
+     */
+    static Map<String, SyntheticEntry> byPackage(final List<SyntheticEntry> entries) {
+        Map<String, SyntheticEntry> known = new HashMap<String, SyntheticEntry>(entries.size());
+        for (SyntheticEntry e : entries) {
+            known.put(e.pkg.packageName, e);
+        }
+        return known;
+    }
+
+    @Override
+    public String getPackageName() {
+        return pkg.packageName;
+    }
+
+    @Override
+    public boolean isSystem() {
+        return pkg.system;
+    }
+
+    @Override
+    public String getSearchText() {
+        return searchText;
+    }
+
+    @Override
+    public int compareTo(final SyntheticEntry other) {
+        int result = key.compareTo(other.key);
+        return result != 0 ? result : pkg.packageName.compareTo(other.pkg.packageName);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.Collator;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Counts the allocations of binding rows, which happens on every scroll and every change
+ * notification of a row.
+ * <p/>
+ * The rows are not laid out, so this only counts the allocations of the adapter and the
+ * IconCache, not the text layouts a TextView creates when it is measured with a new text.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EfficientAdapterTest {
+
+    private final static int BINDS = 1000;
+
+    private EfficientAdapter adapter;
+    private EfficientAdapter.ViewHolder holder;
+
+    /**
+     * Creates an adapter with two apps, whose icons are in the cache, and binds a row to the
+     * first app
+     */
+    private void setUp() {
+        Context c = InstrumentationRegistry.getTargetContext();
+        AppIndex<AppEntry> index = new AppIndex<AppEntry>();
+        IconCache icons = new IconCache(c, new InventorySnapshot(c));
+        adapter = new EfficientAdapter(c, index, icons);
+        int size = c.getResources().getDimensionPixelSize(R.dimen.icon_size);
+        for (String name : new String[]{"a", "b"}) {
+            ApplicationInfo app = new ApplicationInfo(c.getApplicationInfo());
+            app.packageName = "com.example." + name;
+            AppEntry entry = AppEntry.create(app, 1, 0, "App " + name, Collator.getInstance());
+            icons.put(entry, Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888));
+            index.put(entry);
+        }
+        holder = adapter.onCreateViewHolder(new FrameLayout(c), 0);
+        adapter.onBindViewHolder(holder, 0);
+    }
+
+    /**
+     * @return the number of objects allocated on this thread by the given binds
+     */
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(final Runnable bind) {
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            bind.run();
+            return Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    @Test
+    public void bindOtherAppDoesNotAllocate() {
+        final int[] allocations = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUp();
+                final Runnable bind = new Runnable() {
+                    @Override
+                    public void run() {
+                        // a recycled row, which showed the other app before
+                        for (int i = 0; i < BINDS; i++) {
+                            adapter.onBindViewHolder(holder, i % 2);
+                        }
+                    }
+                };
+                // creates the metric counters and the lazily created state of the views
+                bind.run();
+                allocations[0] = countAllocations(bind);
+            }
+        });
+        assertEquals(0, allocations[0]);
+    }
+
+    @Test
+    public void rebindDoesNotAllocate() {
+        final int[] allocations = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUp();
+                allocations[0] = countAllocations(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < BINDS; i++) {
+                            adapter.onBindViewHolder(holder, 0);
+                        }
+                    }
+                });
+            }
+        });
+        assertEquals(0, allocations[0]);
+    }
+
+    @Test
+    public void selectionChangeDoesNotAllocate() {
+        final int[] allocations = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                setUp();
+                final List<Object> payloads =
+                        Collections.singletonList(EfficientAdapter.PAYLOAD_SELECTION);
+                allocations[0] = countAllocations(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < BINDS; i++) {
+                            adapter.onBindViewHolder(holder, 0, payloads);
+                        }
+                    }
+                });
+            }
+        });
+        assertEquals(0, allocations[0]);
+    }
+}
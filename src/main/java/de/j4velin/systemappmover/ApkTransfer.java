@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Copies an apk file or an app directory (containing split apks) to its new location.
+ * <p/>
+ * If this process can read the source and write to the target directory, the files are copied
+ * in-process with FileChannel.transferTo, which lets the kernel copy the data without passing it
+ * through this process. Otherwise, the copy is done by 'cp' in the root shell.
+ * <p/>
+ * The progress is reported in chunks for in-process copies. For shell copies, the size of the
+ * target is polled while 'cp' is running, which only works if this app can read the target.
+ * The timeout of a shell copy grows with the size of the app, so large games on slow flash
+ * memory don't time out while 'cp' is still writing.
+ */
+public class ApkTransfer {
+
+    /**
+     * Receives the progress of a copy
+     */
+    interface Progress {
+        /**
+         * @param bytes the number of bytes copied so far
+         */
+        void onCopied(long bytes);
+
+        /**
+         * @return true, if the copy should be aborted. Only in-process copies can be aborted,
+         * 'cp' in the shell always runs to the end
+         */
+        boolean isCancelRequested();
+    }
+
+    private final static long CHUNK_SIZE = 4 * 1024 * 1024;
+    private final static long POLL_INTERVAL = 250;
+    /**
+     * Minimum timeout of a shell copy in ms
+     */
+    private final static long MIN_TIMEOUT = 120000;
+    /**
+     * Throughput to assume at most for the timeout, in bytes per ms (= 20 MB/s), as a measured
+     * throughput might come from faster in-process copies
+     */
+    private final static float MAX_THROUGHPUT = 20 * 1024 * 1024 / 1000f;
+
+    private final RootShell shell;
+    private final String tools;
+    private final float throughput;
+
+    /**
+     * @param shell      the shell to use if the files can not be copied in-process
+     * @param tools      the prefix for shell tools, for example "busybox " or "" to use the tools
+     *                   of the system (toybox)
+     * @param throughput the throughput measured during previous copies in bytes per ms
+     */
+    public ApkTransfer(final RootShell shell, final String tools, final float throughput) {
+        this.shell = shell;
+        this.tools = tools;
+        this.throughput = throughput;
+    }
+
+    /**
+     * Copies a file or directory. The target must not exist yet.
+     *
+     * @param source   the file or directory to copy
+     * @param target   the path of the copy
+     * @param size     the number of bytes to copy, the app directory itself might not be
+     *                 readable to compute it here
+     * @param progress receives the progress
+     * @return true, if the copy was done in-process, false if it was done by the shell
+     * @throws IOException           if the copy failed
+     * @throws TimeoutException      if the shell did not finish the copy in time
+     * @throws CancellationException if the copy was cancelled, the target might be incomplete
+     */
+    boolean copy(final File source, final File target, final long size,
+                 final Progress progress)
+            throws IOException, TimeoutException {
+        if (canCopyDirectly(source, target.getParentFile())) {
+            copyDirectly(source, target, 0, progress);
+            return true;
+        }
+        Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(POLL_INTERVAL);
+                        progress.onCopied(sizeOf(target));
+                    }
+                } catch (InterruptedException e) {
+                    // copy finished
+                }
+            }
+        });
+        watcher.setDaemon(true);
+        watcher.start();
+        RootShell.Result result;
+        try {
+            result = shell.run(tools + "cp -r " + source.getPath() + " " + target.getPath(),
+                    getTimeout(size));
+        } finally {
+            watcher.interrupt();
+        }
+        progress.onCopied(sizeOf(target));
+        if (!result.isSuccess()) {
+            throw new IOException(result.getOutput());
+        }
+        return false;
+    }
+
+    /**
+     * @param size the number of bytes to copy
+     * @return the timeout for a shell copy in ms: four times the expected duration, but at least
+     * two minutes
+     */
+    long getTimeout(final long size) {
+        float assumed = Math.min(throughput > 0 ? throughput : MAX_THROUGHPUT, MAX_THROUGHPUT);
+        return Math.max(MIN_TIMEOUT, (long) (4 * size / assumed));
+    }
+
+    /**
+     * Checks if the source can be copied without root
+     *
+     * @param source    the source file or directory
+     * @param targetDir the directory to copy to
+     * @return true, if this process can read all source files and write to the target directory
+     */
+    private static boolean canCopyDirectly(final File source, final File targetDir) {
+        if (targetDir == null || !targetDir.canWrite() || !source.canRead()) return false;
+        if (source.isDirectory()) {
+            File[] files = source.listFiles();
+            if (files == null) return false;
+            for (File f : files) {
+                if (!canCopyDirectly(f, targetDir)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the size of a file or the total size of all files in a directory
+     *
+     * @param file the file or directory
+     * @return the size in bytes, not including files this app can not see
+     */
+    static long sizeOf(final File file) {
+        if (!file.isDirectory()) return file.length();
+        File[] files = file.listFiles();
+        if (files == null) return 0;
+        long size = 0;
+        for (File f : files) {
+            size += sizeOf(f);
+        }
+        return size;
+    }
+
+    /**
+     * Copies a file or directory in-process
+     *
+     * @param done     the number of bytes copied before this file
+     * @param progress receives the progress
+     * @return the number of bytes copied, including the bytes copied before this file
+     */
+    private static long copyDirectly(final File source, final File target, long done,
+                                     final Progress progress) throws IOException {
+        if (source.isDirectory()) {
+            if (!target.mkdir()) throw new IOException("Can not create " + target);
+            File[] files = source.listFiles();
+            if (files == null) throw new IOException("Can not list " + source);
+            for (File f : files) {
+                done = copyDirectly(f, new File(target, f.getName()), done, progress);
+            }
+            return done;
+        }
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                FileChannel from = in.getChannel();
+                FileChannel to = out.getChannel();
+                long size = from.size();
+                long position = 0;
+                while (position < size) {
+                    if (progress.isCancelRequested()) throw new CancellationException();
+                    long transferred = from.transferTo(position,
+                            Math.min(CHUNK_SIZE, size - position), to);
+                    if (transferred <= 0) throw new IOException(source + " changed while copying");
+                    position += transferred;
+                    progress.onCopied(done + position);
+                }
+                to.force(true);
+                return done + size;
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
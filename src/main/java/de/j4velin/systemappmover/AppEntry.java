@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import java.text.CollationKey;
+import java.text.Collator;
+
+/**
+ * An installed app together with its label.
+ * <p/>
+ * The label is loaded only once and turned into a CollationKey, so sorting the app list does
+ * not need to call the PackageManager for every comparison. It is also normalized once into the
+ * search text used by the AppIndex to filter the list.
+ */
+public class AppEntry implements AppIndex.Item<AppEntry> {
+
+    final ApplicationInfo app;
+    final String label;
+    final int versionCode;
+    final long lastUpdateTime;
+    /**
+     * Key for the IconCache, changes whenever the app is updated
+     */
+    final String iconKey;
+    /**
+     * Stable id of the row, derived from the package name
+     */
+    final long id;
+    /**
+     * The path the app was moved to, if the move waits for a reboot, null otherwise
+     */
+    final String movedTo;
+    /**
+     * The text the search query is matched against, see SearchText
+     */
+    final String searchText;
+    /**
+     * true, if the ApplicationInfo comes from the PackageManager. Entries read from the
+     * InventorySnapshot only have a bare ApplicationInfo until the AppPicker checked them, which
+     * can not be used to load the icon
+     */
+    final boolean reconciled;
+    private final CollationKey key;
+
+    private AppEntry(final ApplicationInfo app, final int versionCode, final long lastUpdateTime,
+                     final String label, final CollationKey key, final String searchText,
+                     final String movedTo, final boolean reconciled) {
+        this.app = app;
+        this.versionCode = versionCode;
+        this.lastUpdateTime = lastUpdateTime;
+        this.label = label;
+        this.key = key;
+        this.searchText = searchText;
+        this.movedTo = movedTo;
+        this.reconciled = reconciled;
+        this.iconKey = app.packageName + "-" + versionCode;
+        this.id = hash(app.packageName);
+    }
+
+    /**
+     * Loads the label of the given app and creates the sort key for it
+     *
+     * @param pkg      the package of the app
+     * @param pm       the PackageManager to load the label with
+     * @param collator the collator to create the sort key with, must not be shared between threads
+     * @return the entry for the app
+     */
+    static AppEntry create(final PackageInfo pkg, final PackageManager pm,
+                           final Collator collator) {
+        final ApplicationInfo app = pkg.applicationInfo;
+        String label;
+        try {
+            label = app.loadLabel(pm).toString();
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            label = app.packageName;
+        }
+        return new AppEntry(app, pkg.versionCode, pkg.lastUpdateTime, label,
+                collator.getCollationKey(label), SearchText.create(label, app.packageName), null,
+                true);
+    }
+
+    /**
+     * Creates an entry for an app read from the InventorySnapshot, with an already known label
+     *
+     * @param app            the app, only containing the package name and flags
+     * @param versionCode    the version of the app
+     * @param lastUpdateTime the time the app was last updated
+     * @param label          the label of the app
+     * @param collator       the collator to create the sort key with
+     * @return the entry for the app
+     */
+    static AppEntry create(final ApplicationInfo app, final int versionCode,
+                           final long lastUpdateTime, final String label,
+                           final Collator collator) {
+        return new AppEntry(app, versionCode, lastUpdateTime, label,
+                collator.getCollationKey(label), SearchText.create(label, app.packageName), null,
+                false);
+    }
+
+    /**
+     * Computes a 64 bit FNV-1a hash, as the 32 bit String.hashCode might collide for some of
+     * several hundred package names
+     *
+     * @param text the text to hash
+     * @return the hash
+     */
+    private static long hash(final String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Checks if this entry still describes the given package or if the package was updated since
+     *
+     * @param pkg the installed package
+     * @return true, if label and icon of this entry are still valid for the package
+     */
+    boolean isCurrent(final PackageInfo pkg) {
+        return versionCode == pkg.versionCode && lastUpdateTime == pkg.lastUpdateTime;
+    }
+
+    /**
+     * Creates a copy of this entry for the given ApplicationInfo, keeping the label and sort key
+     *
+     * @param pkg the installed package
+     * @return the updated entry
+     */
+    AppEntry update(final PackageInfo pkg) {
+        return new AppEntry(pkg.applicationInfo, versionCode, lastUpdateTime, label, key,
+                searchText, movedTo, true);
+    }
+
+    /**
+     * Creates a copy of this entry for an app which was just moved
+     *
+     * @param target the new path of the apk
+     * @return the updated entry
+     */
+    AppEntry moved(final String target) {
+        return new AppEntry(app, versionCode, lastUpdateTime, label, key, searchText, target,
+                reconciled);
+    }
+
+    /**
+     * Checks if this entry would be shown the same as the given entry
+     *
+     * @param other another entry, usually for the same package
+     * @return true, if label, icon and state of both entries are equal. The icon of an entry
+     * which is not reconciled yet might not be shown, so such entries differ from reconciled ones
+     */
+    boolean isSameContent(final AppEntry other) {
+        return label.equals(other.label) && iconKey.equals(other.iconKey) &&
+                reconciled == other.reconciled &&
+                isSystem() == other.isSystem() && (movedTo == null ? other.movedTo == null :
+                movedTo.equals(other.movedTo));
+    }
+
+    /**
+     * @return true, if this app is a system app
+     */
+    @Override
+    public boolean isSystem() {
+        return (app.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+    }
+
+    @Override
+    public String getPackageName() {
+        return app.packageName;
+    }
+
+    @Override
+    public String getSearchText() {
+        return searchText;
+    }
+
+    /**
+     * Creates a collator for the current locale which ignores the case of the labels
+     *
+     * @return the collator
+     */
+    static Collator createCollator() {
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+        return collator;
+    }
+
+    @Override
+    public int compareTo(final AppEntry other) {
+        int result = key.compareTo(other.key);
+        return result != 0 ? result : app.packageName.compareTo(other.app.packageName);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorted in-memory list of all installed apps.
+ * <p/>
+ * The index is filled by the AppPicker and afterwards kept up to date by the PackageReceiver and
+ * the results of our own moves, so the apps don't have to be loaded again. The list shown to the
+ * user is a filtered view on the index, depending on the 'show system apps' setting and the
+ * search query.
+ * <p/>
+ * The query is matched against the precomputed search text of every entry, so filtering does not
+ * allocate anything per app. If the query only got longer, just the currently shown apps are
+ * filtered again.
+ * <p/>
+ * The index only depends on the {@link Item} interface, which is implemented by AppEntry, so it
+ * can be benchmarked without the Android framework.
+ * <p/>
+ * All methods must be called on the UI thread
+ */
+public class AppIndex<E extends AppIndex.Item<E>> {
+
+    /**
+     * An app in the index, ordered by label
+     */
+    interface Item<E> extends Comparable<E> {
+        String getPackageName();
+
+        boolean isSystem();
+
+        /**
+         * @return the text the search query is matched against, created by SearchText
+         */
+        String getSearchText();
+    }
+
+    /**
+     * Listener to be notified about changes of the shown apps
+     */
+    interface Listener {
+        void onInserted(int position);
+
+        void onRemoved(int position);
+
+        void onChanged(int position);
+
+        void onReset();
+    }
+
+    private final Map<String, E> byPackage = new HashMap<String, E>();
+    private List<E> all = new ArrayList<E>();
+    private List<E> shown = new ArrayList<E>();
+    /**
+     * Reused to filter the list, swapped with 'shown' if the result differs
+     */
+    private List<E> spare = new ArrayList<E>();
+    private boolean showSystem;
+    private String query = "";
+    private String[] queryTokens = SearchText.tokenize("");
+    private boolean complete;
+    private Listener listener;
+
+    void setListener(final Listener l) {
+        listener = l;
+    }
+
+    /**
+     * Replaces the content of the index
+     *
+     * @param apps     all installed apps, sorted
+     * @param complete false, if the apps might be outdated, for example loaded from a snapshot
+     */
+    void setAll(final List<E> apps, final boolean complete) {
+        byPackage.clear();
+        for (E e : apps) {
+            byPackage.put(e.getPackageName(), e);
+        }
+        all = new ArrayList<E>(apps);
+        shown.clear();
+        for (E e : all) {
+            if (matches(e)) shown.add(e);
+        }
+        this.complete = complete;
+        if (listener != null) listener.onReset();
+    }
+
+    /**
+     * Sets if system apps should be shown. Does not load any apps, only filters the index.
+     *
+     * @param show true, to show system apps
+     */
+    void setShowSystem(final boolean show) {
+        if (showSystem == show) return;
+        showSystem = show;
+        filter(all);
+    }
+
+    /**
+     * Filters the shown apps by label and package name
+     *
+     * @param text the search query, all of its words must be found in the label, the initials of
+     *             the label's words or the package name
+     */
+    void setQuery(final String text) {
+        String normalized = SearchText.normalize(text.trim());
+        if (normalized.equals(query)) return;
+        boolean narrowed = normalized.startsWith(query);
+        query = normalized;
+        queryTokens = SearchText.tokenize(normalized);
+        filter(narrowed ? shown : all);
+    }
+
+    /**
+     * @return true, if the index reflects the currently installed apps
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the number of shown apps
+     */
+    int size() {
+        return shown.size();
+    }
+
+    /**
+     * @param position the position in the shown list
+     * @return the app at the given position
+     */
+    E get(final int position) {
+        return shown.get(position);
+    }
+
+    /**
+     * @return a copy of the list of shown apps
+     */
+    List<E> copyShown() {
+        return new ArrayList<E>(shown);
+    }
+
+    /**
+     * @param packageName the package name
+     * @return the app with the given package name or null, if not installed
+     */
+    E find(final String packageName) {
+        return byPackage.get(packageName);
+    }
+
+    /**
+     * Adds an app to the index or replaces the entry of the same package
+     *
+     * @param entry the app
+     */
+    void put(final E entry) {
+        E old = byPackage.put(entry.getPackageName(), entry);
+        if (old != null) removeSorted(all, old);
+        all.add(-Collections.binarySearch(all, entry) - 1, entry);
+
+        int oldPosition = old != null ? Collections.binarySearch(shown, old) : -1;
+        boolean visible = matches(entry);
+        if (oldPosition >= 0 && visible && old.compareTo(entry) == 0) {
+            shown.set(oldPosition, entry);
+            if (listener != null) listener.onChanged(oldPosition);
+            return;
+        }
+        if (oldPosition >= 0) {
+            shown.remove(oldPosition);
+            if (listener != null) listener.onRemoved(oldPosition);
+        }
+        if (visible) {
+            int position = -Collections.binarySearch(shown, entry) - 1;
+            shown.add(position, entry);
+            if (listener != null) listener.onInserted(position);
+        }
+    }
+
+    /**
+     * Removes an app from the index
+     *
+     * @param packageName the package name of the app
+     */
+    void remove(final String packageName) {
+        E old = byPackage.remove(packageName);
+        if (old == null) return;
+        removeSorted(all, old);
+        int position = removeSorted(shown, old);
+        if (position >= 0 && listener != null) listener.onRemoved(position);
+    }
+
+    /**
+     * Removes an entry from a sorted list
+     *
+     * @param list  the list
+     * @param entry the entry to remove
+     * @return the former position of the entry or a negative value, if it was not in the list
+     */
+    private int removeSorted(final List<E> list, final E entry) {
+        int position = Collections.binarySearch(list, entry);
+        if (position >= 0) list.remove(position);
+        return position;
+    }
+
+    /**
+     * Filters the given apps into the shown list and notifies the listener, if the shown apps
+     * changed
+     *
+     * @param source all apps or the currently shown apps, if the filter got more restrictive
+     */
+    private void filter(final List<E> source) {
+        spare.clear();
+        for (int i = 0; i < source.size(); i++) {
+            E e = source.get(i);
+            if (matches(e)) spare.add(e);
+        }
+        if (isEqual(spare, shown)) return;
+        List<E> tmp = shown;
+        shown = spare;
+        spare = tmp;
+        if (listener != null) listener.onReset();
+    }
+
+    private boolean matches(final E e) {
+        return (showSystem || !e.isSystem()) && SearchText.matches(e.getSearchText(), queryTokens);
+    }
+
+    private boolean isEqual(final List<E> a, final List<E> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) return false;
+        }
+        return true;
+    }
+}
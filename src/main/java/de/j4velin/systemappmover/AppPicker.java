@@ -17,31 +17,40 @@
 package de.j4velin.systemappmover;
 
 import android.app.ProgressDialog;
-import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
-import android.widget.ListView;
 
+import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 
 /**
  * Class to list all installed app.
  * <p/>
+ * The list from the last start is shown immediately from the InventorySnapshot, while the
+ * installed apps are checked in the background. Only apps which were installed or updated since
+ * then need to have their label loaded again. Apps with a move waiting for a reboot are marked
+ * from the PendingMoves. The result is stored in the AppIndex of the activity.
+ * <p/>
+ * The labels are loaded in parallel by the InventoryLoader, which passes the loaded apps in
+ * batches, so the list fills while the remaining labels are still loading.
+ * <p/>
  * The actual moving happens in the AppClickListener class when an item is clicked.
  */
-public class AppPicker extends AsyncTask<Void, Void, Void> {
+public class AppPicker extends AsyncTask<Void, List<AppEntry>, List<AppEntry>> {
 
-    List<Drawable> icons;
-    List<ApplicationInfo> apps;
-    PackageManager pm;
+    private PackageManager pm;
     private ProgressDialog progress;
-    final MoverActivity activity;
+    private final MoverActivity activity;
+    /**
+     * true, once the first apps are shown
+     */
+    private boolean shown;
 
     public AppPicker(final MoverActivity a) {
         activity = a;
@@ -53,57 +62,116 @@ public class AppPicker extends AsyncTask<Void, Void, Void> {
         progress = ProgressDialog.show(activity, "", "Loading apps", true);
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void onProgressUpdate(final List<AppEntry>... entries) {
+        // show the snapshot or the first batch, but don't allow moving until the real state is
+        // known
+        if (!shown) {
+            shown = true;
+            dismissProgress();
+            activity.index.setAll(entries[0], false);
+        } else {
+            for (AppEntry e : entries[0]) {
+                activity.index.put(e);
+            }
+        }
+    }
+
     @Override
-    protected void onPostExecute(Void a) {
+    protected void onPostExecute(final List<AppEntry> result) {
+        dismissProgress();
+        if (result.isEmpty()) {
+            activity.showErrorDialog("Error loadings apps!");
+        } else {
+            activity.index.setAll(result, true);
+        }
+    }
+
+    private void dismissProgress() {
         try {
             progress.cancel();
         } catch (IllegalArgumentException e) {
             if (BuildConfig.DEBUG) Logger.log(e);
         }
-        if (apps == null || apps.isEmpty()) {
-            activity.showErrorDialog("Error loadings apps!");
-        } else {
-            ListView liste = (ListView) activity.findViewById(R.id.apps);
-            liste.setAdapter(new EfficientAdapter(activity, this));
-            liste.setOnItemClickListener(new AppClickListener(this));
-        }
     }
 
+    @SuppressWarnings("unchecked")
     @Override
-    protected Void doInBackground(Void... params) {
-        // load all apps and their icons, sort them alphabetical
-        apps = pm.getInstalledApplications(0);
-        if (!MoverActivity.SHOW_SYSTEM_APPS) {
-            Iterator<ApplicationInfo> it = apps.iterator();
-            ApplicationInfo app;
-            while (it.hasNext()) {
-                app = it.next();
-                if ((app.flags & ApplicationInfo.FLAG_SYSTEM) == 1) it.remove();
-            }
+    protected List<AppEntry> doInBackground(Void... params) {
+        long start = System.nanoTime();
+        Collator collator = AppEntry.createCollator();
+        List<AppEntry> cached = activity.snapshot.read(collator);
+        Metrics.time("inventory.snapshot_read", start);
+        activity.pending.prune(pm);
+        final Map<String, String> pending = activity.pending.getAll();
+        markPending(cached, pending);
+        if (!cached.isEmpty()) publishProgress(cached);
+
+        // only load the labels of new or updated apps, icons are loaded by the adapter when needed
+        Map<String, AppEntry> known = new HashMap<String, AppEntry>(cached.size());
+        for (AppEntry e : cached) {
+            known.put(e.app.packageName, e);
         }
-        try {
-            Collections.sort(apps, new Comparator<ApplicationInfo>() {
-                public int compare(final ApplicationInfo app1, final ApplicationInfo app2) {
-                    try {
-                        return app1.loadLabel(pm).toString().toLowerCase()
-                                .compareTo(app2.loadLabel(pm).toString().toLowerCase());
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        return 0;
-                    }
-                }
-            });
-        } catch (IllegalArgumentException iae) {
+        long query = System.nanoTime();
+        List<PackageInfo> installed = new ArrayList<PackageInfo>(pm.getInstalledPackages(0));
+        Metrics.time("inventory.package_query", query);
+        for (Iterator<PackageInfo> it = installed.iterator(); it.hasNext(); ) {
+            if (it.next().applicationInfo == null) it.remove();
         }
-
-        icons = new ArrayList<Drawable>(apps.size());
-        try {
-            for (int i = 0; i < apps.size(); i++) {
-                icons.add(apps.get(i).loadIcon(pm));
+        // collators must not be shared between threads
+        final ThreadLocal<Collator> collators = new ThreadLocal<Collator>() {
+            @Override
+            protected Collator initialValue() {
+                return AppEntry.createCollator();
             }
-        } catch (OutOfMemoryError oom) {
-        }
-        return null;
+        };
+        final int[] loaded = new int[1];
+        List<AppEntry> result = new InventoryLoader<PackageInfo, AppEntry>(
+                new InventoryLoader.Packages<PackageInfo, AppEntry>() {
+                    @Override
+                    public String getPackageName(final PackageInfo pkg) {
+                        return pkg.packageName;
+                    }
+
+                    @Override
+                    public AppEntry update(final AppEntry known, final PackageInfo pkg) {
+                        return known.isCurrent(pkg) ? known.update(pkg) : null;
+                    }
+
+                    @Override
+                    public AppEntry load(final PackageInfo pkg) {
+                        AppEntry entry = AppEntry.create(pkg, pm, collators.get());
+                        String target = pending.get(pkg.packageName);
+                        return target != null ? entry.moved(target) : entry;
+                    }
+                }, InventoryLoader.THREADS).load(installed, known,
+                new InventoryLoader.Listener<AppEntry>() {
+                    @Override
+                    public void onLoaded(final List<AppEntry> batch) {
+                        loaded[0] += batch.size();
+                        publishProgress(batch);
+                    }
+                });
+        if (loaded[0] > 0 || result.size() != cached.size()) activity.snapshot.write(result);
+        Metrics.count("inventory.apps", result.size());
+        Metrics.time("inventory.load", start);
+        return result;
     }
 
-}
\ No newline at end of file
+    /**
+     * Replaces the entries of apps with a pending move by entries showing the move
+     *
+     * @param entries the entries
+     * @param pending the pending moves: package name -> new path
+     */
+    private static void markPending(final List<AppEntry> entries,
+                                    final Map<String, String> pending) {
+        if (pending.isEmpty()) return;
+        for (int i = 0; i < entries.size(); i++) {
+            AppEntry e = entries.get(i);
+            String target = pending.get(e.app.packageName);
+            if (target != null && e.movedTo == null) entries.set(i, e.moved(target));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.stericson.RootTools.RootTools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks for root access and busybox.
+ * <p/>
+ * The checks for the su and busybox binaries run concurrently with the request for root access.
+ * Only the busybox version has to wait, as RootTools reads it through the same root shell that is
+ * used to check the access.
+ * <p/>
+ * A successful result is cached until the next reboot, so later starts of the app don't need to
+ * spawn any processes.
+ */
+public class CapabilityProbe {
+
+    /**
+     * The result of a probe
+     */
+    static class Capabilities {
+        /**
+         * true, if the su binary exists
+         */
+        final boolean root;
+        /**
+         * true, if this app was granted root access
+         */
+        final boolean access;
+        /**
+         * the version of busybox or null, if busybox is not installed
+         */
+        final String busybox;
+
+        private Capabilities(final boolean root, final boolean access, final String busybox) {
+            this.root = root;
+            this.access = access;
+            this.busybox = busybox;
+        }
+    }
+
+    private final static String BOOT_ID_FILE = "/proc/sys/kernel/random/boot_id";
+
+    private final SharedPreferences prefs;
+
+    public CapabilityProbe(final Context c) {
+        prefs = c.getSharedPreferences("capabilities", Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Checks for root and busybox. Must not be called on the UI thread.
+     *
+     * @param useCache true, to use the result of a previous probe since the last reboot
+     * @return the capabilities of the device
+     */
+    Capabilities probe(final boolean useCache) {
+        String bootId = readBootId();
+        if (useCache && bootId != null && bootId.equals(prefs.getString("bootId", null))) {
+            if (BuildConfig.DEBUG) Logger.log("using cached capabilities for boot " + bootId);
+            return new Capabilities(true, true, prefs.getString("busybox", null));
+        }
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final boolean systemlessRoot = new File("/su").exists();
+            Future<Boolean> root = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return systemlessRoot || RootTools.isRootAvailable();
+                }
+            });
+            final Future<Boolean> busybox = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return new File("/su/xbin/busybox").exists() || RootTools.isBusyboxAvailable();
+                }
+            });
+            Future<Boolean> access = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return systemlessRoot || RootTools.isAccessGiven();
+                }
+            });
+
+            Capabilities result;
+            if (!root.get()) {
+                result = new Capabilities(false, false, null);
+            } else if (!access.get()) {
+                result = new Capabilities(true, false, null);
+            } else {
+                String version = null;
+                if (busybox.get()) {
+                    version = RootTools.getBusyBoxVersion();
+                    if (version == null) version = "";
+                }
+                result = new Capabilities(true, true, version);
+                // only cache granted access, so that the user can still grant it later
+                if (bootId != null) {
+                    prefs.edit().putString("bootId", bootId).putString("busybox", version)
+                            .apply();
+                }
+            }
+            if (BuildConfig.DEBUG) Logger.log(
+                    "capability probe: " + (System.nanoTime() - start) / 1000000 + " ms");
+            return result;
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            // let the user check again
+            return new Capabilities(true, false, null);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the id of the current boot
+     *
+     * @return the boot id or null, if it can not be read
+     */
+    private static String readBootId() {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(BOOT_ID_FILE));
+            try {
+                return in.readLine();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            return null;
+        }
+    }
+}
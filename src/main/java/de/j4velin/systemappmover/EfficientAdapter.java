@@ -17,76 +17,283 @@
 package de.j4velin.systemappmover;
 
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
+import android.os.AsyncTask;
 import android.os.Handler;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-public class EfficientAdapter extends BaseAdapter {
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Binds the AppEntries of the AppIndex to the rows of the list.
+ * <p/>
+ * Rows are bound synchronously from the entries, which already contain everything that is shown,
+ * so binding a row in a steady state (icon in the cache) does not allocate anything itself, only
+ * the TextViews might create new text layouts. A row that still shows the same entry is not bound
+ * again.
+ * <p/>
+ * Single inserts, removals and changes of the index are passed on directly. If the whole index
+ * changes, for example after loading the apps or toggling the system apps, the difference to the
+ * shown list is computed in the background with DiffUtil and only the changed rows are updated.
+ * <p/>
+ * Also keeps track of the selected apps in the selection mode.
+ */
+public class EfficientAdapter extends RecyclerView.Adapter<EfficientAdapter.ViewHolder>
+		implements AppIndex.Listener {
+
+	/**
+	 * Receives clicks on the rows
+	 */
+	interface ClickListener {
+		void onItemClick(AppEntry entry);
+
+		boolean onItemLongClick(AppEntry entry);
+	}
+
+	final static Object PAYLOAD_SELECTION = new Object();
 
 	private final LayoutInflater mInflater;
 	private final Handler handler = new Handler();
-	private final AppPicker ap;
+	private final AppIndex<AppEntry> index;
+	private final IconCache icons;
+	private final Set<String> selected = new HashSet<String>();
+	private ClickListener clickListener;
+	/**
+	 * The apps currently shown, might be behind the index while a diff is computed
+	 */
+	private List<AppEntry> items = new ArrayList<AppEntry>();
+	/**
+	 * Incremented for every diff, results of outdated diffs are dropped
+	 */
+	private int generation;
+	private boolean diffPending;
 
-	public EfficientAdapter(final Context c, final AppPicker a) {
+	public EfficientAdapter(final Context c, final AppIndex<AppEntry> i, final IconCache ic) {
 		mInflater = LayoutInflater.from(c);
-		ap = a;
+		index = i;
+		icons = ic;
+		setHasStableIds(true);
+		index.setListener(this);
 	}
 
-	public int getCount() {
-		return ap.apps.size();
+	void setClickListener(final ClickListener l) {
+		clickListener = l;
 	}
 
-	public Object getItem(int position) {
-		return position;
+	@Override
+	public int getItemCount() {
+		return items.size();
 	}
 
+	@Override
 	public long getItemId(int position) {
-		return position;
-	}
-
-	public View getView(final int position, View convertView, ViewGroup parent) {
-		if (position < ap.apps.size()) {
-			final ViewHolder holder;
-
-			if (convertView == null || !(convertView.getTag() instanceof ViewHolder)) {
-				convertView = mInflater.inflate(R.layout.listviewitem, null);
-				holder = new ViewHolder();
-				holder.text = (TextView) convertView.findViewById(R.id.text);
-				holder.pack = (TextView) convertView.findViewById(R.id.pack);
-				holder.icon = (ImageView) convertView.findViewById(R.id.icon);
-				holder.system = (TextView) convertView.findViewById(R.id.system);
-				convertView.setTag(holder);
-			} else {
-				holder = (ViewHolder) convertView.getTag();
+		return items.get(position).id;
+	}
+
+	@Override
+	public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+		return new ViewHolder(mInflater.inflate(R.layout.listviewitem, parent, false));
+	}
+
+	@Override
+	public void onBindViewHolder(ViewHolder holder, int position) {
+		AppEntry entry = items.get(position);
+		holder.itemView.setActivated(selected.contains(entry.app.packageName));
+		if (holder.entry == entry) return;
+		holder.entry = entry;
+		holder.text.setText(entry.label);
+		holder.pack.setText(entry.app.packageName);
+		holder.system.setVisibility(entry.isSystem() ? View.VISIBLE : View.GONE);
+		// moved apps stay in the list until the next reboot
+		holder.itemView.setAlpha(entry.movedTo != null ? 0.5f : 1f);
+		holder.pending.setVisibility(entry.movedTo != null ? View.VISIBLE : View.GONE);
+		icons.load(entry, holder.icon);
+	}
+
+	@Override
+	public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+		if (payloads.contains(PAYLOAD_SELECTION)) {
+			holder.itemView.setActivated(
+					selected.contains(items.get(position).app.packageName));
+		} else {
+			onBindViewHolder(holder, position);
+		}
+	}
+
+	@Override
+	public void onInserted(int position) {
+		if (diffPending) {
+			onReset();
+		} else {
+			items.add(position, index.get(position));
+			notifyItemInserted(position);
+		}
+	}
+
+	@Override
+	public void onRemoved(int position) {
+		if (diffPending) {
+			onReset();
+		} else {
+			items.remove(position);
+			notifyItemRemoved(position);
+		}
+	}
+
+	@Override
+	public void onChanged(int position) {
+		if (diffPending) {
+			onReset();
+		} else {
+			items.set(position, index.get(position));
+			notifyItemChanged(position);
+		}
+	}
+
+	@Override
+	public void onReset() {
+		final List<AppEntry> oldItems = items;
+		final List<AppEntry> newItems = index.copyShown();
+		final int diffGeneration = ++generation;
+		diffPending = true;
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				final DiffUtil.DiffResult diff =
+						DiffUtil.calculateDiff(new Diff(oldItems, newItems), false);
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						// the index changed again in the meantime, another diff is on its way
+						if (diffGeneration != generation) return;
+						diffPending = false;
+						items = newItems;
+						diff.dispatchUpdatesTo(EfficientAdapter.this);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Selects or deselects an app
+	 *
+	 * @param entry the app
+	 * @return the number of selected apps
+	 */
+	int toggleSelection(final AppEntry entry) {
+		String pkg = entry.app.packageName;
+		if (!selected.remove(pkg)) selected.add(pkg);
+		notifySelectionChanged(pkg);
+		return selected.size();
+	}
+
+	/**
+	 * @return the selected apps, in the order of the list
+	 */
+	List<AppEntry> getSelected() {
+		List<AppEntry> result = new ArrayList<AppEntry>(selected.size());
+		for (AppEntry e : items) {
+			if (selected.contains(e.app.packageName)) result.add(e);
+		}
+		return result;
+	}
+
+	void clearSelection() {
+		List<String> packages = new ArrayList<String>(selected);
+		selected.clear();
+		for (String pkg : packages) {
+			notifySelectionChanged(pkg);
+		}
+	}
+
+	private void notifySelectionChanged(final String pkg) {
+		for (int i = 0; i < items.size(); i++) {
+			if (items.get(i).app.packageName.equals(pkg)) {
+				notifyItemChanged(i, PAYLOAD_SELECTION);
+				return;
 			}
+		}
+	}
+
+	/**
+	 * Compares the shown apps with the new content of the index
+	 */
+	private static class Diff extends DiffUtil.Callback {
+		private final List<AppEntry> oldItems;
+		private final List<AppEntry> newItems;
+
+		private Diff(final List<AppEntry> oldItems, final List<AppEntry> newItems) {
+			this.oldItems = oldItems;
+			this.newItems = newItems;
+		}
+
+		@Override
+		public int getOldListSize() {
+			return oldItems.size();
+		}
 
-			handler.post(new Runnable() {
-				public void run() {
-					holder.text.setText(ap.apps.get(position).loadLabel(ap.pm));
-					holder.pack.setText(ap.apps.get(position).packageName);
-					holder.system.setVisibility(((ap.apps.get(position).flags & ApplicationInfo.FLAG_SYSTEM) == 1) ? View.VISIBLE
-							: View.GONE);
-					// sollte eig immer der fall sein, trotzdem
-					// ArrayIndexOutofBounds crashreport erhalten
-					if (position < ap.icons.size())
-						holder.icon.setImageDrawable(ap.icons.get(position));
-				}
-			});
+		@Override
+		public int getNewListSize() {
+			return newItems.size();
+		}
 
+		@Override
+		public boolean areItemsTheSame(int oldPosition, int newPosition) {
+			return oldItems.get(oldPosition).id == newItems.get(newPosition).id;
+		}
+
+		@Override
+		public boolean areContentsTheSame(int oldPosition, int newPosition) {
+			return oldItems.get(oldPosition).isSameContent(newItems.get(newPosition));
 		}
-		return convertView;
 	}
 
-	private class ViewHolder {
-		TextView text;
-		TextView pack;
-		ImageView icon;
-		TextView system;
+	class ViewHolder extends RecyclerView.ViewHolder
+			implements View.OnClickListener, View.OnLongClickListener {
+		/**
+		 * The entry currently shown in the row
+		 */
+		AppEntry entry;
+		final TextView text;
+		final TextView pack;
+		final ImageView icon;
+		final TextView system;
+		final TextView pending;
+
+		ViewHolder(final View row) {
+			super(row);
+			text = (TextView) row.findViewById(R.id.text);
+			pack = (TextView) row.findViewById(R.id.pack);
+			icon = (ImageView) row.findViewById(R.id.icon);
+			system = (TextView) row.findViewById(R.id.system);
+			pending = (TextView) row.findViewById(R.id.pending);
+			row.setOnClickListener(this);
+			row.setOnLongClickListener(this);
+		}
+
+		@Override
+		public void onClick(final View v) {
+			int position = getAdapterPosition();
+			if (clickListener != null && position != RecyclerView.NO_POSITION) {
+				clickListener.onItemClick(items.get(position));
+			}
+		}
+
+		@Override
+		public boolean onLongClick(final View v) {
+			int position = getAdapterPosition();
+			return clickListener != null && position != RecyclerView.NO_POSITION &&
+					clickListener.onItemLongClick(items.get(position));
+		}
 	}
 
-}
\ No newline at end of file
+}
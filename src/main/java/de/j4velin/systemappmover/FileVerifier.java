@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+/**
+ * Checks that a copied file is complete and equal to its source.
+ * <p/>
+ * Both files are compared by size and CRC32. If a file can not be read by this app, the checksums
+ * are computed by 'md5sum' in the root shell instead. Directories are equal if they contain equal
+ * files.
+ */
+public class FileVerifier {
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private FileVerifier() {
+    }
+
+    /**
+     * Checks if both files or directories have the same content
+     *
+     * @param source the original file or directory
+     * @param target the copy
+     * @param shell  the shell to use if the files can not be read directly, might be null
+     * @param tools  the prefix for shell tools, for example "busybox "
+     * @return true, if both are equal
+     * @throws IOException      if the files can neither be read directly nor with the shell
+     * @throws TimeoutException if the shell did not answer in time
+     */
+    static boolean isCopy(final File source, final File target, final RootShell shell,
+                          final String tools) throws IOException, TimeoutException {
+        // a single apk can not be empty, but an app directory might contain empty files
+        if (source.isFile() && source.length() == 0) return false;
+        return isSame(source, target, shell, tools);
+    }
+
+    private static boolean isSame(final File source, final File target, final RootShell shell,
+                                  final String tools) throws IOException, TimeoutException {
+        if (source.isDirectory()) {
+            for (String name : list(source, shell, tools)) {
+                if (!isSame(new File(source, name), new File(target, name), shell, tools)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (source.canRead() && target.canRead()) {
+            return source.length() == target.length() && crc32(source) == crc32(target);
+        } else if (shell != null) {
+            RootShell.Result result =
+                    shell.run(tools + "md5sum " + source.getPath() + " " + target.getPath(), 60000);
+            if (!result.isSuccess() || result.stdout.size() != 2) {
+                throw new IOException("md5sum failed: " + result.getOutput());
+            }
+            String sourceSum = result.stdout.get(0).split("\\s+")[0];
+            String targetSum = result.stdout.get(1).split("\\s+")[0];
+            return sourceSum.equals(targetSum);
+        } else {
+            throw new IOException("Can not read " + (source.canRead() ? target : source));
+        }
+    }
+
+    /**
+     * Lists the content of a directory, with the shell if it is not readable by this app
+     */
+    private static String[] list(final File dir, final RootShell shell, final String tools)
+            throws IOException, TimeoutException {
+        String[] files = dir.list();
+        if (files != null) return files;
+        if (shell == null) throw new IOException("Can not list " + dir);
+        RootShell.Result result = shell.run(tools + "ls " + dir.getPath());
+        if (!result.isSuccess()) throw new IOException("ls failed: " + result.getOutput());
+        return result.stdout.toArray(new String[result.stdout.size()]);
+    }
+
+    /**
+     * Computes the CRC32 of a file
+     *
+     * @param file the file
+     * @return the checksum
+     * @throws IOException if the file can not be read
+     */
+    static long crc32(final File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                crc.update(buffer.array(), 0, read);
+                buffer.clear();
+            }
+            return crc.getValue();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads app icons when they are shown in the list.
+ * <p/>
+ * Icons are drawn into bitmaps of the size of the list icon on background threads, one per core,
+ * and kept in a LRU cache with a fixed memory limit, so the memory usage does not depend on the
+ * number of installed apps. The bitmaps are also stored as thumbnails of the InventorySnapshot, so
+ * they don't have to be loaded from the apk again on the next start. Apps only known from the
+ * snapshot show their thumbnail or no icon until they are reconciled with the PackageManager.
+ * <p/>
+ * The cache holds the drawables shown by the rows, so showing a cached icon does not allocate
+ * anything, unlike ImageView.setImageBitmap which creates a new drawable for every call.
+ */
+public class IconCache {
+
+    private final LruCache<String, BitmapDrawable> cache;
+    private final ExecutorService executor =
+            Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final PackageManager pm;
+    private final Resources res;
+    private final InventorySnapshot snapshot;
+    private final int size;
+
+    public IconCache(final Context c, final InventorySnapshot s) {
+        pm = c.getPackageManager();
+        res = c.getResources();
+        snapshot = s;
+        size = c.getResources().getDimensionPixelSize(R.dimen.icon_size);
+        int maxBytes = ((ActivityManager) c.getSystemService(Context.ACTIVITY_SERVICE))
+                .getMemoryClass() * 1024 * 1024 / 16;
+        cache = new LruCache<String, BitmapDrawable>(maxBytes) {
+            @Override
+            protected int sizeOf(final String key, final BitmapDrawable value) {
+                return value.getBitmap().getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Shows the icon of the given app in the ImageView. If the icon is not in the cache yet, it
+     * is loaded in the background and set once the view still shows the same app.
+     * <p/>
+     * Must be called on the UI thread
+     *
+     * @param entry the app
+     * @param view  the view to show the icon in
+     */
+    void load(final AppEntry entry, final ImageView view) {
+        view.setTag(R.id.icon, entry.iconKey);
+        BitmapDrawable icon = cache.get(entry.iconKey);
+        if (icon != null) {
+            Metrics.count("icons.cache_hit", 1);
+            view.setImageDrawable(icon);
+            return;
+        }
+        view.setImageDrawable(null);
+        final WeakReference<ImageView> ref = new WeakReference<ImageView>(view);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!isWanted(ref.get(), entry.iconKey)) return;
+                long start = System.nanoTime();
+                final Bitmap bitmap = decode(entry);
+                Metrics.time("icons.load", start);
+                if (bitmap == null) return;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        BitmapDrawable icon = put(entry, bitmap);
+                        ImageView v = ref.get();
+                        if (isWanted(v, entry.iconKey)) v.setImageDrawable(icon);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Adds an icon to the cache. Must be called on the UI thread
+     *
+     * @param entry the app
+     * @param icon  the icon, in the size of the list icon
+     * @return the drawable to show the icon with
+     */
+    BitmapDrawable put(final AppEntry entry, final Bitmap icon) {
+        BitmapDrawable drawable = new BitmapDrawable(res, icon);
+        cache.put(entry.iconKey, drawable);
+        return drawable;
+    }
+
+    /**
+     * Stops all pending loads and clears the cache
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        cache.evictAll();
+    }
+
+    private static boolean isWanted(final ImageView view, final String key) {
+        return view != null && key.equals(view.getTag(R.id.icon));
+    }
+
+    private Bitmap decode(final AppEntry entry) {
+        File thumbnail = snapshot.getIconFile(entry);
+        if (thumbnail.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(thumbnail.getAbsolutePath());
+            if (bitmap != null) {
+                Metrics.count("icons.thumbnail_hit", 1);
+                return bitmap;
+            }
+        }
+        if (!entry.reconciled) {
+            // the bare ApplicationInfo from the snapshot would only give the default icon, the
+            // row is bound again once the AppPicker has checked the app
+            Metrics.count("icons.deferred", 1);
+            return null;
+        }
+        try {
+            Drawable d = entry.app.loadIcon(pm);
+            Metrics.count("icons.package_manager_load", 1);
+            Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            d.setBounds(0, 0, size, size);
+            d.draw(new Canvas(bitmap));
+            saveThumbnail(bitmap, thumbnail);
+            return bitmap;
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            return null;
+        }
+    }
+
+    private void saveThumbnail(final Bitmap bitmap, final File thumbnail) {
+        if (!snapshot.createIconDir()) return;
+        File tmp = new File(thumbnail.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            tmp.renameTo(thumbnail);
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reconciles the installed packages with the apps known from the last start.
+ * <p/>
+ * Known apps which were not updated keep their entry, only new and updated apps need to have
+ * their label loaded. Loading a label mostly waits for the resources of the app, so the labels
+ * are loaded by several threads at once. The loaded apps are passed to the listener in sorted
+ * batches, so the list fills while the remaining labels are still loading.
+ *
+ * @param <P> the type of the installed packages
+ * @param <E> the type of the entries created for the packages
+ */
+public class InventoryLoader<P, E extends Comparable<E>> {
+
+    /**
+     * Access to the installed packages
+     */
+    interface Packages<P, E> {
+        String getPackageName(P pkg);
+
+        /**
+         * @param known the entry of the package from the last start
+         * @param pkg   the installed package
+         * @return the known entry updated for the package or null, if the package was updated
+         * and its label has to be loaded again
+         */
+        E update(E known, P pkg);
+
+        /**
+         * Loads the label of a package and creates its entry. Called by several threads at once
+         *
+         * @param pkg the installed package
+         * @return the entry
+         */
+        E load(P pkg);
+    }
+
+    /**
+     * Receives the loaded entries, on the thread calling {@link #load(List, Map, Listener)}
+     */
+    interface Listener<E> {
+        /**
+         * @param batch newly loaded entries, sorted
+         */
+        void onLoaded(List<E> batch);
+    }
+
+    /**
+     * One thread per core
+     */
+    final static int THREADS = Runtime.getRuntime().availableProcessors();
+    /**
+     * Number of loaded entries to pass to the listener at once
+     */
+    private final static int BATCH_SIZE = 25;
+
+    private final Packages<P, E> packages;
+    private final int threads;
+
+    /**
+     * @param packages access to the installed packages
+     * @param threads  the maximum number of threads to load labels with
+     */
+    InventoryLoader(final Packages<P, E> packages, final int threads) {
+        this.packages = packages;
+        this.threads = threads;
+    }
+
+    /**
+     * Creates the entries for all installed packages
+     *
+     * @param installed the installed packages
+     * @param known     the entries from the last start, by package name
+     * @param listener  receives the entries of new and updated packages while they are loaded
+     * @return the entries of all installed packages, sorted
+     */
+    List<E> load(final List<P> installed, final Map<String, E> known,
+                 final Listener<E> listener) {
+        List<E> result = new ArrayList<E>(installed.size());
+        List<P> toLoad = new ArrayList<P>();
+        for (P pkg : installed) {
+            E old = known.get(packages.getPackageName(pkg));
+            E updated = old != null ? packages.update(old, pkg) : null;
+            if (updated != null) {
+                result.add(updated);
+            } else {
+                toLoad.add(pkg);
+            }
+        }
+        if (!toLoad.isEmpty()) loadLabels(toLoad, result, listener);
+        Collections.sort(result);
+        return result;
+    }
+
+    private void loadLabels(final List<P> toLoad, final List<E> result,
+                            final Listener<E> listener) {
+        long start = System.nanoTime();
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.max(1, Math.min(threads, toLoad.size())));
+        CompletionService<E> loaded = new ExecutorCompletionService<E>(executor);
+        for (final P pkg : toLoad) {
+            loaded.submit(new Callable<E>() {
+                @Override
+                public E call() {
+                    long label = System.nanoTime();
+                    E entry = packages.load(pkg);
+                    Metrics.time("inventory.label_load", label);
+                    return entry;
+                }
+            });
+        }
+        try {
+            List<E> batch = new ArrayList<E>(BATCH_SIZE);
+            for (int i = 0; i < toLoad.size(); i++) {
+                try {
+                    batch.add(loaded.take().get());
+                } catch (ExecutionException e) {
+                    // load() handles its own errors, an entry which still failed is left out
+                }
+                if (batch.size() == BATCH_SIZE || i == toLoad.size() - 1) {
+                    // the first batch might be shown as the whole list, which must be sorted
+                    Collections.sort(batch);
+                    result.addAll(batch);
+                    listener.onLoaded(batch);
+                    batch = new ArrayList<E>(BATCH_SIZE);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        Metrics.time("inventory.labels", start);
+    }
+}
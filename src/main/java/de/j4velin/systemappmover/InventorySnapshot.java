@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Snapshot of the app list from the last start, stored in the private app storage.
+ * <p/>
+ * The snapshot allows to show the list immediately on the next start, while the AppPicker checks
+ * in the background which apps were installed, removed or updated in the meantime. Icon thumbnails
+ * are stored next to the snapshot, one file per app version, and written by the IconCache.
+ */
+public class InventorySnapshot {
+
+    private final static int MAGIC = 0x53414d31; // "SAM1"
+    private final static int VERSION = 1;
+    private final static String ICON_SUFFIX = ".png";
+
+    private final File dir;
+    private final File file;
+
+    public InventorySnapshot(final Context c) {
+        dir = new File(c.getFilesDir(), "inventory");
+        file = new File(dir, "apps.bin");
+    }
+
+    /**
+     * Reads the apps stored in the snapshot
+     *
+     * @param collator the collator to create the sort keys with
+     * @return the sorted apps of the snapshot, an empty list if there is no valid snapshot
+     */
+    List<AppEntry> read(final Collator collator) {
+        if (!file.exists()) return Collections.emptyList();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+                    !Locale.getDefault().toString().equals(in.readUTF())) {
+                // labels might be in another language, don't use them
+                return Collections.emptyList();
+            }
+            int count = in.readInt();
+            List<AppEntry> apps = new ArrayList<AppEntry>(count);
+            for (int i = 0; i < count; i++) {
+                ApplicationInfo app = new ApplicationInfo();
+                app.packageName = in.readUTF();
+                String label = in.readUTF();
+                app.flags = in.readInt();
+                app.sourceDir = in.readUTF();
+                long lastUpdateTime = in.readLong();
+                int versionCode = in.readInt();
+                apps.add(AppEntry.create(app, versionCode, lastUpdateTime, label, collator));
+            }
+            return apps;
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            return Collections.emptyList();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the given apps and removes the thumbnails of all other apps
+     * <p/>
+     * Should not be called on the UI thread
+     *
+     * @param apps the apps to store
+     */
+    void write(final List<AppEntry> apps) {
+        if (!dir.exists() && !dir.mkdirs()) return;
+        File tmp = new File(dir, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(Locale.getDefault().toString());
+            out.writeInt(apps.size());
+            for (AppEntry e : apps) {
+                out.writeUTF(e.app.packageName);
+                out.writeUTF(e.label);
+                out.writeInt(e.app.flags);
+                out.writeUTF(e.app.sourceDir != null ? e.app.sourceDir : "");
+                out.writeLong(e.lastUpdateTime);
+                out.writeInt(e.versionCode);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                if (BuildConfig.DEBUG) Logger.log("can not replace inventory snapshot");
+                return;
+            }
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            return;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        Set<String> keep = new HashSet<String>(apps.size());
+        for (AppEntry e : apps) {
+            keep.add(e.iconKey + ICON_SUFFIX);
+        }
+        String[] files = dir.list();
+        if (files == null) return;
+        for (String name : files) {
+            if (name.endsWith(ICON_SUFFIX) && !keep.contains(name)) {
+                new File(dir, name).delete();
+            }
+        }
+    }
+
+    /**
+     * Gets the file for the icon thumbnail of the given app
+     *
+     * @param entry the app
+     * @return the thumbnail file, might not exist yet
+     */
+    File getIconFile(final AppEntry entry) {
+        return new File(dir, entry.iconKey + ICON_SUFFIX);
+    }
+
+    /**
+     * Makes sure the directory for the thumbnails exists
+     *
+     * @return false, if the directory can not be created
+     */
+    boolean createIconDir() {
+        return dir.exists() || dir.mkdirs();
+    }
+}
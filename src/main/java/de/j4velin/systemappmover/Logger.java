@@ -1,12 +1,12 @@
 /*
  * Copyright 2012 Thomas Hoffmann
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *     http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -16,18 +16,89 @@
 
 package de.j4velin.systemappmover;
 
+import android.content.Context;
+
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import android.os.Environment;
-
+/**
+ * Logs events into an in-memory ring buffer.
+ * <p/>
+ * Logging only claims a slot in the buffer and stores the event, it never blocks and never touches
+ * the disk. In debug builds, a background thread drains the buffer every second, writes the new
+ * events to a log file in one batch and rotates the file once it gets too big.
+ * <p/>
+ * Stage events of the move engine are always recorded, so that the last events can be exported
+ * for bug reports even in release builds.
+ */
 public class Logger {
 
-    private static FileWriter fw;
-    private static Date date = new Date();
     private final static String APP = "SystemAppMover";
+    private final static int CAPACITY = 1024; // must be a power of 2
+    private final static long MAX_FILE_SIZE = 512 * 1024;
+    private final static long FLUSH_INTERVAL = 1000;
+
+    /**
+     * A single log event
+     */
+    private static class Event {
+        final long seq;
+        final long time;
+        final String stage;
+        final String pkg;
+        final long duration;
+        final String msg;
+
+        Event(final long seq, final String stage, final String pkg, final long duration,
+              final String msg) {
+            this.seq = seq;
+            this.time = System.currentTimeMillis();
+            this.stage = stage;
+            this.pkg = pkg;
+            this.duration = duration;
+            this.msg = msg;
+        }
+
+        void format(final StringBuilder out, final SimpleDateFormat dateFormat) {
+            out.append(dateFormat.format(new Date(time)));
+            if (stage != null) out.append(" stage=").append(stage);
+            if (pkg != null) out.append(" pkg=").append(pkg);
+            if (duration >= 0) out.append(" duration=").append(duration).append("ms");
+            if (msg != null) out.append(" - ").append(msg);
+            out.append('\n');
+        }
+    }
+
+    private final static AtomicReferenceArray<Event> buffer =
+            new AtomicReferenceArray<Event>(CAPACITY);
+    /**
+     * The sequence number of the next event
+     */
+    private final static AtomicLong next = new AtomicLong();
+
+    private static File logFile;
+
+    /**
+     * Starts writing the log to a file. Does nothing in release builds.
+     *
+     * @param c the context
+     */
+    static synchronized void init(final Context c) {
+        if (!BuildConfig.DEBUG || logFile != null) return;
+        File dir = c.getExternalFilesDir(null);
+        if (dir == null) dir = c.getFilesDir();
+        logFile = new File(dir, APP + ".log");
+        Thread writer = new Thread(new LogWriter(logFile), APP + " log writer");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
 
     public static void log(Throwable ex) {
         log(ex.getMessage());
@@ -36,30 +107,117 @@ public class Logger {
         }
     }
 
-    @SuppressWarnings("deprecation")
     public static void log(String msg) {
         if (!BuildConfig.DEBUG)
             return;
         android.util.Log.d(APP, msg);
-        try {
-            if (fw == null) {
-                fw = new FileWriter(new File(Environment.getExternalStorageDirectory().toString() + "/" + APP + ".log"), true);
-            }
-            date.setTime(System.currentTimeMillis());
-            fw.write(date.toLocaleString() + " - " + msg + "\n");
-            fw.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        add(null, null, -1, msg);
+    }
+
+    /**
+     * Logs a finished stage of a move
+     *
+     * @param stage    the stage
+     * @param pkg      the package name of the moved app or null, if the stage covers all apps
+     * @param duration the duration of the stage in ms
+     */
+    public static void log(String stage, String pkg, long duration) {
+        add(stage, pkg, duration, null);
     }
 
-    protected void finalize() throws Throwable {
-        try {
-            if (fw != null)
-                fw.close();
-        } finally {
-            super.finalize();
+    private static void add(final String stage, final String pkg, final long duration,
+                            final String msg) {
+        long seq = next.getAndIncrement();
+        buffer.set((int) (seq & (CAPACITY - 1)), new Event(seq, stage, pkg, duration, msg));
+    }
+
+    /**
+     * Formats the last events, for example to attach them to a bug report
+     *
+     * @param count the maximum number of events
+     * @return the events, oldest first
+     */
+    public static String export(int count) {
+        SimpleDateFormat dateFormat = createDateFormat();
+        long end = next.get();
+        long start = Math.max(0, end - Math.min(count, CAPACITY));
+        StringBuilder out = new StringBuilder();
+        for (long seq = start; seq < end; seq++) {
+            Event e = buffer.get((int) (seq & (CAPACITY - 1)));
+            // skip slots which are not written yet or already overwritten by newer events
+            if (e != null && e.seq == seq) e.format(out, dateFormat);
         }
+        return out.toString();
     }
 
+    private static SimpleDateFormat createDateFormat() {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+    }
+
+    /**
+     * Drains the ring buffer into the log file
+     */
+    private static class LogWriter implements Runnable {
+
+        private final File file;
+        private final SimpleDateFormat dateFormat = createDateFormat();
+        private final StringBuilder batch = new StringBuilder();
+        private long written = 0;
+
+        private LogWriter(final File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(FLUSH_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                drain();
+                if (batch.length() == 0) continue;
+                try {
+                    if (file.length() > MAX_FILE_SIZE) rotate();
+                    FileWriter out = new FileWriter(file, true);
+                    try {
+                        out.write(batch.toString());
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                batch.setLength(0);
+            }
+        }
+
+        /**
+         * Formats all events which are not written yet
+         */
+        private void drain() {
+            long end = next.get();
+            if (end - written > CAPACITY) {
+                batch.append("--- ").append(end - written - CAPACITY)
+                        .append(" events dropped ---\n");
+                written = end - CAPACITY;
+            }
+            while (written < end) {
+                Event e = buffer.get((int) (written & (CAPACITY - 1)));
+                if (e == null || e.seq < written) {
+                    // slot is claimed, but the event is not stored yet -> try again next time
+                    break;
+                }
+                if (e.seq == written) e.format(batch, dateFormat);
+                written++;
+            }
+        }
+
+        private void rotate() {
+            File old = new File(file.getPath() + ".1");
+            if (old.exists() && !old.delete()) return;
+            if (!file.renameTo(old)) file.delete();
+        }
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory registry of timers and counters.
+ * <p/>
+ * Timers measure with the monotonic System.nanoTime and are kept as histograms with power-of-two
+ * buckets, so recording a value is a few atomic increments and never allocates once the timer
+ * exists. The values can be exported as text or JSON to compare devices.
+ */
+public class Metrics {
+
+    /**
+     * Histogram of durations, bucket i counts durations below 2^i microseconds
+     */
+    private static class Timer {
+        private final static int BUCKETS = 40;
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void record(final long micros) {
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(micros);
+            long current;
+            while ((current = max.get()) < micros && !max.compareAndSet(current, micros)) {
+                // retry
+            }
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 1
+         * @return the upper bound of the bucket containing the percentile in microseconds
+         */
+        long getPercentile(final double percentile) {
+            long total = count.get();
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen > 0 && seen >= total * percentile) {
+                    return Math.min(1L << i, max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+    private final static ConcurrentMap<String, Timer> timers =
+            new ConcurrentHashMap<String, Timer>();
+    private final static ConcurrentMap<String, AtomicLong> counters =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Records the time since the given start
+     *
+     * @param name       the name of the timer, for example "move.copy"
+     * @param startNanos the start, as returned by System.nanoTime()
+     */
+    public static void time(final String name, final long startNanos) {
+        timeNanos(name, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a duration
+     *
+     * @param name     the name of the timer
+     * @param duration the duration in ns
+     */
+    public static void timeNanos(final String name, final long duration) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timers.putIfAbsent(name, new Timer());
+            timer = timers.get(name);
+        }
+        timer.record(Math.max(0, duration / 1000));
+    }
+
+    /**
+     * Adds to a counter
+     *
+     * @param name  the name of the counter, for example "move.bytes_copied"
+     * @param delta the value to add
+     */
+    public static void count(final String name, final long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            counters.putIfAbsent(name, new AtomicLong());
+            counter = counters.get(name);
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * @return all timers and counters as a table, like dumpsys does
+     */
+    public static String toText() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "%-28s %7s %9s %9s %9s %9s\n", "timer", "count",
+                "avg ms", "p50 ms", "p95 ms", "max ms"));
+        for (Map.Entry<String, Timer> e : new TreeMap<String, Timer>(timers).entrySet()) {
+            Timer t = e.getValue();
+            long count = t.count.get();
+            out.append(String.format(Locale.US, "%-28s %7d %9.1f %9.1f %9.1f %9.1f\n", e.getKey(),
+                    count, count > 0 ? t.sum.get() / 1000.0 / count : 0,
+                    t.getPercentile(0.5) / 1000.0, t.getPercentile(0.95) / 1000.0,
+                    t.max.get() / 1000.0));
+        }
+        out.append('\n').append(String.format(Locale.US, "%-28s %12s\n", "counter", "value"));
+        for (Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(counters)
+                .entrySet()) {
+            out.append(String.format(Locale.US, "%-28s %12d\n", e.getKey(), e.getValue().get()));
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return all timers and counters as JSON object, durations are in ms
+     */
+    public static String toJson() {
+        StringBuilder out = new StringBuilder("{\"timers\":{");
+        boolean first = true;
+        for (Map.Entry<String, Timer> e : new TreeMap<String, Timer>(timers).entrySet()) {
+            Timer t = e.getValue();
+            if (!first) out.append(',');
+            first = false;
+            out.append('"').append(e.getKey()).append("\":").append(String.format(Locale.US,
+                    "{\"count\":%d,\"sum_ms\":%.3f,\"p50_ms\":%.3f,\"p95_ms\":%.3f,\"max_ms\":%.3f}",
+                    t.count.get(), t.sum.get() / 1000.0, t.getPercentile(0.5) / 1000.0,
+                    t.getPercentile(0.95) / 1000.0, t.max.get() / 1000.0));
+        }
+        out.append("},\"counters\":{");
+        first = true;
+        for (Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(counters)
+                .entrySet()) {
+            if (!first) out.append(',');
+            first = false;
+            out.append('"').append(e.getKey()).append("\":").append(e.getValue().get());
+        }
+        return out.append("}}").toString();
+    }
+
+    /**
+     * Removes all values
+     */
+    public static void reset() {
+        timers.clear();
+        counters.clear();
+    }
+}
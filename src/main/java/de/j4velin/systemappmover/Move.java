@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.Build;
+
+/**
+ * A single app to move, together with the checks if it can be moved at all.
+ */
+public class Move {
+
+    private final static MovePlanner PLANNER =
+            new MovePlanner(Build.VERSION.SDK_INT, MoverActivity.SYSTEM_DIR_TARGET);
+
+    final AppEntry entry;
+    final ApplicationInfo app;
+    final String appName;
+    /**
+     * true, if the app is moved to /system, false if it's converted to a normal app
+     */
+    final boolean toSystem;
+    /**
+     * The reason why the app can not be moved or null, if it can be moved
+     */
+    final String error;
+    /**
+     * A warning to show before moving the app or null
+     */
+    final String warning;
+    /**
+     * true, if the app is a system app with installed updates, which have to be removed first
+     */
+    final boolean updatesInstalled;
+    /**
+     * The files to move, null if the app was not found
+     */
+    final MovePlanner.Plan plan;
+    /**
+     * true, if the whole app directory is moved
+     */
+    final boolean directory;
+    final String source;
+    final String target;
+
+    private Move(final AppEntry entry, final ApplicationInfo app, final String error,
+                 final String warning, final boolean updatesInstalled) {
+        this.entry = entry;
+        this.app = app;
+        this.appName = entry.label;
+        this.toSystem = app == null || (app.flags & ApplicationInfo.FLAG_SYSTEM) == 0;
+        this.error = error;
+        this.updatesInstalled = updatesInstalled;
+        this.plan = app != null ? PLANNER.plan(app.packageName, appName, app.sourceDir,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? app.splitSourceDirs : null,
+                app.nativeLibraryDir, toSystem) : null;
+        this.directory = plan != null && plan.directory;
+        this.source = plan != null ? plan.source : null;
+        this.target = error == null && plan != null ? plan.target : null;
+        if (plan == null || plan.warning == null) {
+            this.warning = warning;
+        } else {
+            this.warning = warning != null ? warning + "\n" + plan.warning : plan.warning;
+        }
+    }
+
+    /**
+     * Checks if the given app can be moved
+     *
+     * @param entry the app to move
+     * @param pm    the PackageManager
+     * @param self  the package name of this app
+     * @return the move, check the error field before executing it
+     */
+    static Move prepare(final AppEntry entry, final PackageManager pm, final String self) {
+        if (entry.movedTo != null) {
+            return new Move(entry, entry.app, "This app was already moved, please reboot before moving it again", null,
+                    false);
+        }
+
+        ApplicationInfo app = entry.app;
+        boolean alreadySys = (app.flags & ApplicationInfo.FLAG_SYSTEM) == 1;
+
+        // update necessary?
+        if ((alreadySys && app.sourceDir.contains("/data/app/")) ||
+                (!alreadySys && app.sourceDir.contains("/system/"))) {
+            try {
+                app = pm.getApplicationInfo(app.packageName, 0);
+            } catch (NameNotFoundException e1) {
+                if (BuildConfig.DEBUG) Logger.log(e1);
+                return new Move(entry, null, "App not found", null, false);
+            }
+            alreadySys = (app.flags & ApplicationInfo.FLAG_SYSTEM) == 1;
+        }
+
+        final String appName = entry.label;
+        if (BuildConfig.DEBUG) Logger.log("Trying to move " + appName + " - " + app.packageName);
+
+        if (app.packageName.equals(self)) {
+            if (BuildConfig.DEBUG) Logger.log("Can not move myself");
+            return new Move(entry, app, "Can not move myself", null, false);
+        }
+
+        if (alreadySys && app.sourceDir.contains("/data/app/")) {
+            if (BuildConfig.DEBUG) Logger.log("Need to remove updates first");
+            return new Move(entry, app,
+                    "Can not move " + appName + ": Remove installed updates first.", null, true);
+        } else if (!alreadySys && app.sourceDir.contains("/system/")) {
+            if (BuildConfig.DEBUG) Logger.log(
+                    "Undefined app status: IsSystem = " + alreadySys + " path = " + app.sourceDir);
+            return new Move(entry, app, "Can not move " + appName +
+                    ": Undefined app status. You might need to reboot once.", null, false);
+        }
+
+        String warning = null;
+
+        if (!alreadySys && app.sourceDir.endsWith("pkg.apk")) {
+            if (app.sourceDir.contains("asec")) {
+                if (BuildConfig.DEBUG) Logger.log("Encrypted app? Path = " + app.sourceDir);
+                warning = appName +
+                        " seems to be an encrypted app and therefore might not be convertible to a system app! Continue at your own risk!";
+            } else {
+                if (BuildConfig.DEBUG) Logger.log("SD card? " + app.sourceDir);
+                return new Move(entry, app, appName +
+                        " is currently installed on SD card. Please move to internal memory before moving to /system/app/",
+                        null, false);
+            }
+        }
+        return new Move(entry, app, null, warning, false);
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+
+import com.stericson.RootTools.RootTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Executes one or more moves.
+ * <p/>
+ * All moves share one remount of /system and the commands of all apps are executed in the same
+ * RootShell, so moving many apps at once takes about as long as moving a single app.
+ * <p/>
+ * Every move runs through the stages of {@link Stage}. Until the source is removed in the
+ * CLEANUP stage, a move can be cancelled and the copy is removed again. Once the cleanup has
+ * started, the move is committed and will be finished.
+ * <p/>
+ * All stages are recorded in the MoveJournal, so that moves which were interrupted because the
+ * app died can be rolled back or finished with {@link #recover()} on the next start.
+ * <p/>
+ * The moves of all engines run one after another, as they share the journal and the mount state
+ * of /system. Must not be called on the UI thread
+ */
+public class MoveEngine {
+
+    /**
+     * The stages of a move, in the order they are executed
+     */
+    enum Stage {
+        /**
+         * Checks the sources and remounts /system, once for all moves
+         */
+        PREFLIGHT("Checking"),
+        /**
+         * Kills the running apps, once for all moves
+         */
+        KILL("Stopping apps"),
+        COPY("Copying"),
+        VERIFY("Verifying"),
+        /**
+         * Sets the permissions of the copy and renames it to the target in one command
+         */
+        INSTALL("Installing"),
+        /**
+         * Removes the source, this is the commit point of a move
+         */
+        CLEANUP("Removing old files");
+
+        final String description;
+
+        Stage(final String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * Receives the progress of the moves. All methods are called on the thread running the moves,
+     * except onProgress, which might also be called by the thread watching a copy
+     */
+    interface Listener {
+        /**
+         * Called when a stage starts
+         *
+         * @param move  the app or null, if the stage covers all apps
+         * @param stage the stage
+         */
+        void onStage(Move move, Stage stage);
+
+        /**
+         * Called when a stage is finished
+         *
+         * @param move     the app or null, if the stage covers all apps
+         * @param stage    the stage
+         * @param duration the duration of the stage in ms
+         */
+        void onStageDone(Move move, Stage stage, long duration);
+
+        /**
+         * @param bytes the number of bytes copied so far for all apps
+         * @param total the total number of bytes to copy
+         */
+        void onProgress(long bytes, long total);
+
+        /**
+         * @return true, if the remaining moves should be cancelled
+         */
+        boolean isCancelRequested();
+    }
+
+    /**
+     * The result of a single move
+     */
+    static class Result {
+        final Move move;
+        /**
+         * null, if the app was moved successfully
+         */
+        final String error;
+
+        Result(final Move move, final String error) {
+            this.move = move;
+            this.error = error;
+        }
+    }
+
+    final static String CANCELLED = "Cancelled";
+
+    private final static String JOURNAL_FILE = "moves.journal";
+    /**
+     * Held while moves are executed or recovered
+     */
+    private final static Object LOCK = new Object();
+
+    private final Context context;
+    private final String tools;
+    private final MoveJournal journal;
+
+    private long stageStart;
+
+    /**
+     * @param c     the context
+     * @param tools the prefix for shell tools, "busybox " or "" to use the tools of the system
+     */
+    public MoveEngine(final Context c, final String tools) {
+        context = c;
+        this.tools = tools;
+        journal = new MoveJournal(new File(c.getFilesDir(), JOURNAL_FILE));
+    }
+
+    /**
+     * Moves the given apps
+     *
+     * @param moves    the apps to move, all of them must have passed the checks in Move.prepare
+     * @param listener receives the progress
+     * @return the result for every move
+     */
+    List<Result> run(final List<Move> moves, final Listener listener) {
+        synchronized (LOCK) {
+            return runLocked(moves, listener);
+        }
+    }
+
+    private List<Result> runLocked(final List<Move> moves, final Listener listener) {
+        List<Result> results = new ArrayList<Result>(moves.size());
+        List<Move> todo = new ArrayList<Move>(moves.size());
+
+        startStage(null, Stage.PREFLIGHT, listener);
+        long total = 0;
+        Set<String> targets = new HashSet<String>(moves.size());
+        for (Move m : moves) {
+            if (BuildConfig.DEBUG) Logger.log("source: " + m.source);
+            if (!new File(m.source).exists()) {
+                if (BuildConfig.DEBUG) Logger.log("source does not exist?!?");
+                results.add(new Result(m, "Can not access source file"));
+            } else if (new File(m.target).exists()) {
+                // never overwrite, a rollback would delete the existing file
+                results.add(new Result(m, m.target + " already exists"));
+            } else if (!targets.add(m.target)) {
+                // apps with the same label get the same target
+                results.add(new Result(m, m.target + " is already the target of another app"));
+            } else {
+                todo.add(m);
+                total += sizeOf(m);
+            }
+        }
+        if (todo.isEmpty()) return results;
+        // reject the moves before remounting, if they would run out of space
+        String spaceError = MovePreview.create(context, todo).error;
+        if (spaceError != null) {
+            for (Move m : todo) {
+                results.add(new Result(m, spaceError));
+            }
+            return results;
+        }
+        if (listener.isCancelRequested()) return cancelRemaining(todo, results);
+        if (!RootTools.remount("/system", "rw")) {
+            if (BuildConfig.DEBUG) Logger.log("can not remount target partition");
+            for (Move m : todo) {
+                results.add(new Result(m, "Could not remount /system"));
+            }
+            return results;
+        }
+        finishStage(null, Stage.PREFLIGHT, listener);
+
+        try {
+            RootShell shell = RootShell.getRoot();
+
+            startStage(null, Stage.KILL, listener);
+            List<ApplicationInfo> apps = new ArrayList<ApplicationInfo>(todo.size());
+            for (Move m : todo) {
+                apps.add(m.app);
+            }
+            int killed = ProcessIndex.scan(context, shell).kill(apps, shell);
+            if (BuildConfig.DEBUG) Logger.log("killed " + killed + " processes");
+            finishStage(null, Stage.KILL, listener);
+
+            long done = 0;
+            float throughput = MovePreview.getThroughput(context);
+            for (Move m : todo) {
+                if (listener.isCancelRequested()) break;
+                long start = System.nanoTime();
+                // a command which timed out closed the shell, so get a new one if necessary
+                shell = RootShell.getRoot();
+                String error =
+                        move(m, shell, new ApkTransfer(shell, tools, throughput), done, total,
+                                listener);
+                results.add(new Result(m, error));
+                Metrics.time("move.total", start);
+                Metrics.count(error == null ? "move.succeeded" : "move.failed", 1);
+                done += sizeOf(m);
+            }
+            cancelRemaining(todo, results);
+            journal.compact();
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (BuildConfig.DEBUG) Logger.log(e);
+            String error = e.getClass().getName() + " " + e.getMessage();
+            for (Move m : todo) {
+                if (!hasResult(results, m)) results.add(new Result(m, error));
+            }
+        } finally {
+            RootTools.remount("/system", "ro");
+            RootTools.remount("/mnt", "ro");
+        }
+        return results;
+    }
+
+    /**
+     * Executes the per-app stages of a single move
+     *
+     * @param done  the number of bytes copied for previous moves
+     * @param total the number of bytes to copy for all moves
+     * @return null, if the app was moved or the error
+     */
+    private String move(final Move m, final RootShell shell, final ApkTransfer transfer,
+                        final long done, final long total, final Listener listener)
+            throws IOException, TimeoutException {
+        String id = journal.begin(m);
+        startStage(m, Stage.COPY, listener);
+        try {
+            boolean direct = transfer.copy(new File(m.source), new File(m.plan.staging),
+                    sizeOf(m), new ApkTransfer.Progress() {
+                        @Override
+                        public void onCopied(final long bytes) {
+                            listener.onProgress(done + bytes, total);
+                        }
+
+                        @Override
+                        public boolean isCancelRequested() {
+                            return listener.isCancelRequested();
+                        }
+                    });
+            if (BuildConfig.DEBUG) Logger.log("copied " + m.source + " to " + m.plan.staging +
+                    (direct ? " in-process" : " with shell"));
+        } catch (IOException e) {
+            String error = "Error: \n" + e.getMessage();
+            if (BuildConfig.DEBUG) Logger.log(error);
+            // don't leave a partial copy behind
+            return rollback(m, id, false, error);
+        } catch (TimeoutException e) {
+            String error = "Error: \n" + e.getMessage();
+            if (BuildConfig.DEBUG) Logger.log(error);
+            return rollback(m, id, false, error);
+        } catch (CancellationException e) {
+            return rollback(m, id, false, CANCELLED);
+        }
+        Metrics.count("move.bytes_copied", sizeOf(m));
+        MovePreview.recordThroughput(context, sizeOf(m), finishStage(m, Stage.COPY, listener));
+        journal.stage(id, Stage.COPY);
+
+        // true, once the copy might have been renamed to the target
+        boolean installing = false;
+        try {
+            startStage(m, Stage.VERIFY, listener);
+            boolean verified = FileVerifier
+                    .isCopy(new File(m.source), new File(m.plan.staging), shell, tools);
+            if (BuildConfig.DEBUG) Logger.log("verified " + m.plan.staging + ": " + verified);
+            if (!verified) {
+                return rollback(m, id, false, m.appName + " could not be moved: incomplete copy");
+            }
+            finishStage(m, Stage.VERIFY, listener);
+            journal.stage(id, Stage.VERIFY);
+
+            // last chance to cancel, the move can not be undone once the source is removed
+            if (listener.isCancelRequested()) {
+                return rollback(m, id, false, CANCELLED);
+            }
+
+            startStage(m, Stage.INSTALL, listener);
+            // the copy is on disk before it appears at the target and before the source is
+            // removed
+            installing = true;
+            if (!run(shell, m.plan.getInstallCommand(tools), 30000).isSuccess()) {
+                // the rename is the last command, so the target was not created
+                return rollback(m, id, false,
+                        m.appName + " could not be moved: installing the copy failed");
+            }
+            finishStage(m, Stage.INSTALL, listener);
+            journal.stage(id, Stage.INSTALL);
+        } catch (IOException e) {
+            String error = "Error: \n" + e.getMessage();
+            if (BuildConfig.DEBUG) Logger.log(error);
+            return rollback(m, id, installing, error);
+        } catch (TimeoutException e) {
+            String error = "Error: \n" + e.getMessage();
+            if (BuildConfig.DEBUG) Logger.log(error);
+            return rollback(m, id, installing, error);
+        }
+
+        journal.commit(id);
+        startStage(m, Stage.CLEANUP, listener);
+        if (!run(shell, tools + "rm -r " + m.source, 10000).isSuccess()) {
+            // the move stays committed in the journal, so the removal is retried on recovery
+            return m.appName + " was copied to " + m.target + ", but " + m.source +
+                    " could not be removed. This is retried on the next start.";
+        }
+        finishStage(m, Stage.CLEANUP, listener);
+        journal.done(id);
+        if (BuildConfig.DEBUG) Logger.log("successfully moved " + m.app.packageName);
+        return null;
+    }
+
+    /**
+     * Removes the copy of a move which could not be finished. Uses a new shell, if the shell of
+     * the move was closed after a timeout. If the copy can not be removed, the move stays
+     * unfinished in the journal, so the removal is retried on recovery.
+     *
+     * @param removeTarget true, if the copy might have been renamed to the target already. The
+     *                     target did not exist before the move, as checked in the preflight
+     * @param error        the reason of the rollback
+     * @return the error to report for the move
+     */
+    private String rollback(final Move m, final String id, final boolean removeTarget,
+                            final String error) throws IOException {
+        boolean removed;
+        try {
+            removed = run(RootShell.getRoot(), tools + "rm -rf " + m.plan.staging +
+                    (removeTarget ? " " + m.target : ""), 10000).isSuccess();
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            removed = false;
+        } catch (TimeoutException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            removed = false;
+        }
+        if (!removed) {
+            return (CANCELLED.equals(error) ? m.appName + " was cancelled" : error) +
+                    "\nThe partial copy could not be removed, this is retried on the next start.";
+        }
+        journal.abort(id);
+        return error;
+    }
+
+    /**
+     * Rolls back or finishes all moves which were interrupted, for example because the app was
+     * killed. Moves which did not reach the commit point are rolled back by removing the copy,
+     * committed moves are finished by removing the source.
+     *
+     * @return the interrupted moves, check their committed field to see if they were finished and
+     * their failed field to see if they have to be recovered again
+     * @throws IOException if the journal can not be read or /system can not be remounted
+     */
+    List<MoveJournal.Entry> recover() throws IOException, TimeoutException {
+        synchronized (LOCK) {
+            return recoverLocked();
+        }
+    }
+
+    private List<MoveJournal.Entry> recoverLocked() throws IOException, TimeoutException {
+        List<MoveJournal.Entry> unfinished = journal.getUnfinished();
+        if (unfinished.isEmpty()) {
+            journal.compact();
+            return unfinished;
+        }
+        if (!RootTools.remount("/system", "rw")) {
+            throw new IOException("Could not remount /system");
+        }
+        try {
+            RootShell shell = RootShell.getRoot();
+            for (MoveJournal.Entry e : unfinished) {
+                if (BuildConfig.DEBUG) Logger.log("recovering " + e.id + ", last stage: " +
+                        e.lastStage + ", committed: " + e.committed);
+                if (e.committed && run(shell, "[ -e " + e.target + " ]", 5000).isSuccess()) {
+                    if (run(shell, tools + "rm -rf " + e.source, 10000).isSuccess()) {
+                        journal.done(e.id);
+                    } else {
+                        e.failed = true;
+                    }
+                } else {
+                    e.committed = false;
+                    if (run(shell, tools + "rm -rf " + MovePlanner.getStagingPath(e.target) + " " +
+                            e.target, 10000).isSuccess()) {
+                        journal.abort(e.id);
+                    } else {
+                        e.failed = true;
+                    }
+                }
+            }
+            journal.compact();
+        } finally {
+            RootTools.remount("/system", "ro");
+            RootTools.remount("/mnt", "ro");
+        }
+        return unfinished;
+    }
+
+    private void startStage(final Move move, final Stage stage, final Listener listener) {
+        listener.onStage(move, stage);
+        stageStart = System.nanoTime();
+    }
+
+    /**
+     * @return the duration of the stage in ms
+     */
+    private long finishStage(final Move move, final Stage stage, final Listener listener) {
+        long nanos = System.nanoTime() - stageStart;
+        Metrics.timeNanos("move." + stage.name().toLowerCase(Locale.US), nanos);
+        long duration = nanos / 1000000;
+        Logger.log(stage.name(), move != null ? move.app.packageName : null, duration);
+        listener.onStageDone(move, stage, duration);
+        return duration;
+    }
+
+    /**
+     * Adds a 'cancelled' result for all moves which don't have a result yet
+     *
+     * @return the results
+     */
+    private static List<Result> cancelRemaining(final List<Move> moves,
+                                                final List<Result> results) {
+        for (Move m : moves) {
+            if (!hasResult(results, m)) results.add(new Result(m, CANCELLED));
+        }
+        return results;
+    }
+
+    /**
+     * Computes the number of bytes to copy for a move
+     *
+     * @param m the move
+     * @return the size of all files of the move
+     */
+    private static long sizeOf(final Move m) {
+        long size = 0;
+        for (String file : m.plan.files) {
+            // the app directory is usually not readable, but the files in it are
+            size += new File(file).length();
+        }
+        return size;
+    }
+
+    /**
+     * Runs a command in the root shell and logs its output and duration
+     *
+     * @param shell   the shell
+     * @param command the command
+     * @param timeout the timeout in ms
+     * @return the result of the command
+     */
+    private static RootShell.Result run(final RootShell shell, final String command,
+                                        final long timeout) throws IOException, TimeoutException {
+        RootShell.Result result = shell.run(command, timeout);
+        if (BuildConfig.DEBUG) {
+            Logger.log("command: " + command + " -> " + result.exitCode + " in " +
+                    result.duration / 1000000 + " ms");
+            for (String str : result.stdout) {
+                Logger.log(str);
+            }
+            for (String str : result.stderr) {
+                Logger.log(str);
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasResult(final List<Result> results, final Move move) {
+        for (Result r : results) {
+            if (r.move == move) return true;
+        }
+        return false;
+    }
+}
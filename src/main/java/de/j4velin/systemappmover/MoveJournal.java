@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only write-ahead journal of the running moves.
+ * <p/>
+ * Every move is recorded before its target is created and after each of its stages. Every record
+ * is synced to disk before the move continues. If the app dies during a move, the journal tells
+ * what has to be cleaned up on the next start: moves which did not reach the commit point are
+ * rolled back by removing the copy, committed moves are finished by removing the source.
+ * <p/>
+ * The journal is a text file with one tab separated record per line:
+ * <pre>
+ * BEGIN   id source target
+ * STAGE   id stage
+ * COMMIT  id
+ * DONE    id
+ * ABORT   id
+ * </pre>
+ * A record which was not completely written, which is a last line without a line break, is
+ * ignored. BEGIN records with a target which could not have been created by the MovePlanner are
+ * ignored as well, as their target is removed on recovery.
+ */
+public class MoveJournal {
+
+    private final static String BEGIN = "BEGIN", STAGE = "STAGE", COMMIT = "COMMIT", DONE =
+            "DONE", ABORT = "ABORT";
+
+    /**
+     * A move which was started but not finished
+     */
+    static class Entry {
+        final String id;
+        final String source;
+        final String target;
+        /**
+         * true, if the copy was complete and the source was about to be removed
+         */
+        boolean committed;
+        String lastStage;
+        /**
+         * true, if the recovery of the move failed, it is tried again on the next recovery
+         */
+        boolean failed;
+
+        private Entry(final String id, final String source, final String target) {
+            this.id = id;
+            this.source = source;
+            this.target = target;
+        }
+
+        /**
+         * @return the package name of the moved app
+         */
+        String getPackageName() {
+            return id.substring(0, id.lastIndexOf('@'));
+        }
+    }
+
+    private final File file;
+
+    public MoveJournal(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Records the start of a move, must be called before the target is created
+     *
+     * @param move the move
+     * @return the id of the move in the journal
+     */
+    synchronized String begin(final Move move) throws IOException {
+        String id = move.app.packageName + "@" + System.currentTimeMillis();
+        append(BEGIN, id, move.source, move.target);
+        return id;
+    }
+
+    synchronized void stage(final String id, final MoveEngine.Stage stage) throws IOException {
+        append(STAGE, id, stage.name());
+    }
+
+    /**
+     * Records that the copy is complete, from now on the move is finished on recovery
+     */
+    synchronized void commit(final String id) throws IOException {
+        append(COMMIT, id);
+    }
+
+    synchronized void done(final String id) throws IOException {
+        append(DONE, id);
+    }
+
+    /**
+     * Records that the move was rolled back and the target removed
+     */
+    synchronized void abort(final String id) throws IOException {
+        append(ABORT, id);
+    }
+
+    /**
+     * Reads all moves which were started but are neither done nor aborted
+     *
+     * @return the unfinished moves, in the order they were started
+     */
+    synchronized List<Entry> getUnfinished() throws IOException {
+        Map<String, Entry> open = new LinkedHashMap<String, Entry>();
+        if (!file.exists()) return new ArrayList<Entry>(0);
+        StringBuilder content = new StringBuilder();
+        Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                content.append(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        // everything after the last line break is a torn record
+        String complete = content.substring(0, content.lastIndexOf("\n") + 1);
+        for (String line : complete.split("\n")) {
+            String[] record = line.split("\t");
+            if (record.length < 2) continue;
+            String type = record[0];
+            String id = record[1];
+            if (BEGIN.equals(type) && record.length == 4) {
+                if (MovePlanner.isTarget(record[3])) {
+                    open.put(id, new Entry(id, record[2], record[3]));
+                } else if (BuildConfig.DEBUG) {
+                    Logger.log("ignoring journal record with invalid target: " + line);
+                }
+            } else if (DONE.equals(type) || ABORT.equals(type)) {
+                open.remove(id);
+            } else if (open.containsKey(id)) {
+                if (COMMIT.equals(type)) {
+                    open.get(id).committed = true;
+                } else if (STAGE.equals(type) && record.length == 3) {
+                    open.get(id).lastStage = record[2];
+                }
+            }
+        }
+        return new ArrayList<Entry>(open.values());
+    }
+
+    /**
+     * Deletes the journal, if all moves in it are finished
+     */
+    synchronized void compact() throws IOException {
+        if (getUnfinished().isEmpty() && file.exists() && !file.delete()) {
+            throw new IOException("Can not delete " + file);
+        }
+    }
+
+    private void append(final String... fields) throws IOException {
+        StringBuilder line = new StringBuilder();
+        // start a new line after a torn record, so this record is not appended to it
+        if (!endsWithLineBreak()) line.append('\n');
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) line.append('\t');
+            line.append(fields[i]);
+        }
+        line.append('\n');
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(line.toString().getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private boolean endsWithLineBreak() throws IOException {
+        if (!file.exists() || file.length() == 0) return true;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        } finally {
+            in.close();
+        }
+    }
+}
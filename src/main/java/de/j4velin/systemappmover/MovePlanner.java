@@ -0,0 +1,261 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes which files have to be moved where for an app.
+ * <p/>
+ * Handles the different layouts of installed apps:
+ * <ul>
+ * <li>a single apk directly in /data/app, /system/app or /system/priv-app, with the native
+ * libraries in /data/app-lib or /system/lib (before Android 5.0)</li>
+ * <li>a directory per app containing base.apk, split apks and the native libraries in lib/
+ * (Android 5.0+)</li>
+ * <li>apps in an encrypted container in /mnt/asec, of which only the apk can be moved</li>
+ * </ul>
+ * Per-app directories are always moved as a whole, so splits and native libraries stay together
+ * with the base apk.
+ * <p/>
+ * The files are first copied to a staging path next to the target and then renamed to the
+ * target, so the package manager never sees a partial copy. The staging name is one the package
+ * manager uses for its own installs, which it skips when scanning the app directories.
+ */
+public class MovePlanner {
+
+    public final static String SYSTEM_FOLDER_1 = "/system/priv-app/";
+    public final static String SYSTEM_FOLDER_2 = "/system/app/";
+    public final static String DATA_FOLDER = "/data/app/";
+
+    /**
+     * The files to move for an app
+     */
+    static class Plan {
+        /**
+         * The apk or the directory of the app
+         */
+        final String source;
+        final String target;
+        /**
+         * The path to copy to, in the same directory as the target
+         */
+        final String staging;
+        /**
+         * true, if the whole app directory is moved
+         */
+        final boolean directory;
+        /**
+         * All files which are part of the move: base apk, split apks and native libraries, if they
+         * are inside the app directory
+         */
+        final List<String> files;
+        /**
+         * A warning about files which are not moved or null
+         */
+        final String warning;
+        /**
+         * The owner of the moved files or null, to keep root as owner
+         */
+        final String owner;
+
+        private Plan(final String source, final String target, final boolean directory,
+                     final List<String> files, final String warning, final String owner) {
+            this.source = source;
+            this.target = target;
+            this.staging = getStagingPath(target);
+            this.directory = directory;
+            this.files = Collections.unmodifiableList(files);
+            this.warning = warning;
+            this.owner = owner;
+        }
+
+        /**
+         * Creates the shell command to install the staged copy: sets the permissions
+         * (directories 755, files 644) and owner, syncs it to disk and renames it to the target.
+         * The rename is atomic, as both paths are in the same directory. Fails if the target
+         * exists, as mv would replace an existing file or move the copy into an existing
+         * directory.
+         *
+         * @param tools the prefix for shell tools, "busybox " or ""
+         * @return the command
+         */
+        String getInstallCommand(final String tools) {
+            String command = directory ? tools + "chmod -R u=rwX,go=rX " + staging :
+                    tools + "chmod 644 " + staging;
+            if (owner != null) {
+                String recursive = directory ? "-R " : "";
+                command += " && " + tools + "chown " + recursive + owner + " " + staging +
+                        " && " + tools + "chgrp " + recursive + owner + " " + staging;
+            }
+            return command + " && " + tools + "sync && [ ! -e " + target + " ] && " + tools +
+                    "mv " + staging + " " + target;
+        }
+    }
+
+    private final int sdkInt;
+    private final String systemTarget;
+
+    /**
+     * @param sdkInt       the Android version of the device
+     * @param systemTarget the directory to move apps to /system to
+     */
+    public MovePlanner(final int sdkInt, final String systemTarget) {
+        this.sdkInt = sdkInt;
+        this.systemTarget = systemTarget;
+    }
+
+    /**
+     * Plans the move of an app
+     *
+     * @param packageName      the package name
+     * @param label            the label of the app, used to name the target
+     * @param sourceDir        the path of the base apk
+     * @param splitSourceDirs  the paths of the split apks, might be null
+     * @param nativeLibraryDir the directory of the native libraries, might be null
+     * @param toSystem         true, if the app is moved to /system
+     * @return the plan
+     */
+    Plan plan(final String packageName, final String label, final String sourceDir,
+              final String[] splitSourceDirs, final String nativeLibraryDir,
+              final boolean toSystem) {
+        String name = label.replaceAll("[^a-zA-Z0-9]+", "");
+        if (name.length() == 0) name = packageName;
+        String owner = sdkInt >= 21 ? "system" : null;
+
+        List<String> files = new ArrayList<String>();
+        files.add(sourceDir);
+        if (splitSourceDirs != null) Collections.addAll(files, splitSourceDirs);
+
+        String appDir = sourceDir.substring(0, sourceDir.lastIndexOf('/') + 1);
+        if (sdkInt >= 21 && !isSharedDir(appDir)) {
+            String source = appDir.substring(0, appDir.length() - 1);
+            String warning = null;
+            if (nativeLibraryDir != null && nativeLibraryDir.startsWith(appDir)) {
+                addFiles(new File(nativeLibraryDir), files);
+            } else if (hasFiles(nativeLibraryDir)) {
+                warning = "The native libraries in " + nativeLibraryDir + " are not moved.";
+            }
+            return new Plan(source, (toSystem ? systemTarget : DATA_FOLDER) + name, true, files,
+                    warning, owner);
+        }
+
+        String warning = null;
+        // system apps use the libraries in /system/lib, normal apps get theirs extracted on boot
+        if (toSystem && hasFiles(nativeLibraryDir)) {
+            warning = "The native libraries in " + nativeLibraryDir +
+                    " are not moved, the app might not work in /system.";
+        }
+        return new Plan(sourceDir, getFileTarget(packageName, name, sourceDir, toSystem), false,
+                files, warning, owner);
+    }
+
+    /**
+     * @param target the target of a move
+     * @return the path the files of the move are copied to before they are renamed to the target
+     */
+    static String getStagingPath(final String target) {
+        int slash = target.lastIndexOf('/') + 1;
+        return target.substring(0, slash) + "vmdl" + target.substring(slash) + ".tmp";
+    }
+
+    /**
+     * Checks if a path is a possible target of a move: a file or directory directly inside one of
+     * the app directories
+     *
+     * @param path the path
+     * @return true, if the path could be the target of a move
+     */
+    static boolean isTarget(final String path) {
+        for (String dir : new String[]{SYSTEM_FOLDER_1, SYSTEM_FOLDER_2, DATA_FOLDER}) {
+            if (path.startsWith(dir)) {
+                String name = path.substring(dir.length());
+                return name.length() > 0 && name.indexOf('/') < 0 && !name.startsWith(".");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a directory contains the apks of many apps
+     *
+     * @param dir the directory, ending with '/'
+     * @return true, if the directory is not an app directory
+     */
+    private static boolean isSharedDir(final String dir) {
+        return dir.equals(DATA_FOLDER) || dir.equals(SYSTEM_FOLDER_1) ||
+                dir.equals(SYSTEM_FOLDER_2) || dir.contains("/asec/") || !dir.startsWith("/") ||
+                dir.equals("/");
+    }
+
+    /**
+     * Computes the target of a single apk, keeping the file name if possible
+     */
+    private String getFileTarget(final String packageName, final String name,
+                                 final String sourceDir, final boolean toSystem) {
+        String newFile;
+        if (toSystem) {
+            if (sourceDir.endsWith("/pkg.apk") || sourceDir.endsWith("/base.apk")) {
+                newFile = systemTarget + name + ".apk";
+            } else {
+                newFile = sourceDir.replace(DATA_FOLDER, systemTarget);
+            }
+        } else {
+            if (sourceDir.endsWith("/pkg.apk")) {
+                newFile = DATA_FOLDER + packageName + ".apk";
+            } else {
+                if (sourceDir.contains(SYSTEM_FOLDER_1)) {
+                    newFile = sourceDir.replace(SYSTEM_FOLDER_1, DATA_FOLDER);
+                } else {
+                    newFile = sourceDir.replace(SYSTEM_FOLDER_2, DATA_FOLDER);
+                }
+                if (sdkInt >= 21) {
+                    String filename = newFile.substring(newFile.lastIndexOf("/") + 1);
+                    if (filename.equals("pkg.apk") || filename.equals("base.apk")) {
+                        filename = name;
+                    }
+                    newFile = DATA_FOLDER + filename;
+                }
+            }
+        }
+        return newFile;
+    }
+
+    private static boolean hasFiles(final String dir) {
+        if (dir == null) return false;
+        String[] content = new File(dir).list();
+        return content != null && content.length > 0;
+    }
+
+    /**
+     * Adds all files in the given directory and its subdirectories
+     */
+    private static void addFiles(final File dir, final List<String> files) {
+        File[] content = dir.listFiles();
+        if (content == null) return;
+        for (File f : content) {
+            if (f.isDirectory()) {
+                addFiles(f, files);
+            } else {
+                files.add(f.getPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.StatFs;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A dry run of one or more moves: which files would be copied, how long it would take and if
+ * there is enough space for them.
+ * <p/>
+ * Creating the preview does not change anything on the device. The duration is estimated from the
+ * copy throughput measured during previous moves.
+ */
+public class MovePreview {
+
+    private final static String PREFS = "moves";
+    /**
+     * Throughput to assume before the first move, in bytes per ms (= 20 MB/s)
+     */
+    private final static float DEFAULT_THROUGHPUT = 20 * 1024 * 1024 / 1000f;
+    private final static int MAX_LISTED_FILES = 10;
+
+    final List<Move> moves;
+    final int files;
+    final long bytes;
+    /**
+     * The estimated duration of the copies in ms
+     */
+    final long duration;
+    /**
+     * Why the moves can not be executed or null
+     */
+    final String error;
+
+    private MovePreview(final List<Move> moves, final int files, final long bytes,
+                        final long duration, final String error) {
+        this.moves = moves;
+        this.files = files;
+        this.bytes = bytes;
+        this.duration = duration;
+        this.error = error;
+    }
+
+    /**
+     * Creates the preview for the given moves
+     *
+     * @param c     the context
+     * @param moves the moves, all of them must have passed the checks in Move.prepare
+     * @return the preview
+     */
+    static MovePreview create(final Context c, final List<Move> moves) {
+        int files = 0;
+        long bytes = 0;
+        // bytes needed per partition
+        Map<String, Long> needed = new HashMap<String, Long>(2);
+        Map<String, String> targetDirs = new HashMap<String, String>(2);
+        for (Move m : moves) {
+            long size = 0;
+            for (String file : m.plan.files) {
+                size += new File(file).length();
+            }
+            files += m.plan.files.size();
+            bytes += size;
+            String partition = getPartition(m.target);
+            Long sum = needed.get(partition);
+            needed.put(partition, sum == null ? size : sum + size);
+            targetDirs.put(partition, m.target.substring(0, m.target.lastIndexOf('/') + 1));
+        }
+
+        String error = null;
+        for (Map.Entry<String, Long> e : needed.entrySet()) {
+            long free = getFreeSpace(targetDirs.get(e.getKey()));
+            if (BuildConfig.DEBUG) Logger.log(e.getKey() + ": " + e.getValue() + " bytes needed, " +
+                    free + " bytes free");
+            if (free >= 0 && free < e.getValue()) {
+                error = "Not enough space on " + e.getKey() + ": " + formatSize(e.getValue()) +
+                        " needed, but only " + formatSize(free) + " free";
+            }
+        }
+
+        return new MovePreview(moves, files, bytes, (long) (bytes / getThroughput(c)), error);
+    }
+
+    /**
+     * @param c the context
+     * @return the copy throughput measured during previous moves in bytes per ms or 20 MB/s, if
+     * nothing was measured yet
+     */
+    static float getThroughput(final Context c) {
+        return c.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                .getFloat("throughput", DEFAULT_THROUGHPUT);
+    }
+
+    /**
+     * Remembers the throughput of a copy for future estimates
+     *
+     * @param c        the context
+     * @param bytes    the number of copied bytes
+     * @param duration the duration of the copy in ms
+     */
+    static void recordThroughput(final Context c, final long bytes, final long duration) {
+        // small copies are dominated by the overhead and don't tell much
+        if (bytes < 1024 * 1024 || duration <= 0) return;
+        SharedPreferences prefs = c.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        float measured = bytes / (float) duration;
+        float old = prefs.getFloat("throughput", -1);
+        prefs.edit().putFloat("throughput", old < 0 ? measured : (old + measured) / 2).apply();
+    }
+
+    /**
+     * @return the files to copy, the total size and the estimated duration
+     */
+    String getDescription() {
+        StringBuilder description = new StringBuilder();
+        int listed = 0;
+        for (Move m : moves) {
+            for (String file : m.plan.files) {
+                if (listed++ < MAX_LISTED_FILES) description.append(file).append('\n');
+            }
+        }
+        if (listed > MAX_LISTED_FILES) {
+            description.append("... and ").append(listed - MAX_LISTED_FILES).append(" more\n");
+        }
+        description.append(files).append(files == 1 ? " file, " : " files, ")
+                .append(formatSize(bytes)).append(", about ")
+                .append(Math.max(1, Math.round(duration / 1000f))).append(" s");
+        return description.toString();
+    }
+
+    /**
+     * @param path an absolute path
+     * @return the first directory of the path, for example "/system"
+     */
+    private static String getPartition(final String path) {
+        int end = path.indexOf('/', 1);
+        return end > 0 ? path.substring(0, end) : path;
+    }
+
+    /**
+     * @param dir a directory
+     * @return the free space of the partition containing the directory in bytes or -1, if it is
+     * unknown
+     */
+    @SuppressWarnings("deprecation")
+    private static long getFreeSpace(final String dir) {
+        try {
+            StatFs stat = new StatFs(dir);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                return stat.getAvailableBytes();
+            } else {
+                return (long) stat.getAvailableBlocks() * stat.getBlockSize();
+            }
+        } catch (IllegalArgumentException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            return -1;
+        }
+    }
+
+    private static String formatSize(final long bytes) {
+        return String.format(Locale.US, "%.1f MB", bytes / (1024f * 1024f));
+    }
+}
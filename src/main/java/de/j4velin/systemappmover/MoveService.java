@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves apps without any user interaction, for scripted setups of many devices:
+ * <pre>
+ * adb shell am startservice -n de.j4velin.systemappmover/.MoveService \
+ *     -a de.j4velin.systemappmover.action.MOVE \
+ *     --esa packages com.example.a,com.example.b --es direction system
+ * </pre>
+ * The direction is optional: "system" only moves apps which are not yet system apps, "data" only
+ * converts system apps to normal apps. Without it, every app is moved to the other location.
+ * <p/>
+ * The service is protected by the DUMP permission, which the adb shell has, but normal apps
+ * can not get. Requests are executed one after another.
+ * <p/>
+ * The result is a JSON object with one entry per requested package. It is written to logcat
+ * with the tag "SystemAppMover", stored in the external files directory as move_result.json and
+ * sent as ACTION_RESULT broadcast to receivers holding the DUMP permission:
+ * <pre>
+ * {"results":[{"package":"com.example.a","status":"moved","target":"/system/priv-app/A"},
+ *             {"package":"com.example.b","status":"failed","error":"..."}],
+ *  "reboot_required":true}
+ * </pre>
+ * A reboot is required as long as any move, also from earlier requests or the app, is pending.
+ * The status is one of moved, failed, rejected (the app can not be moved), skipped (the app is
+ * already in the requested location) or not_found.
+ * <p/>
+ * Moves which were interrupted before, for example because the device lost power, are finished
+ * or undone first and listed in "recovered", with the status moved, rolled_back or failed.
+ */
+public class MoveService extends IntentService {
+
+    final static String ACTION_MOVE = "de.j4velin.systemappmover.action.MOVE";
+    final static String ACTION_RESULT = "de.j4velin.systemappmover.action.MOVE_RESULT";
+    final static String EXTRA_PACKAGES = "packages";
+    final static String EXTRA_DIRECTION = "direction";
+    final static String EXTRA_RESULT = "result";
+
+    private final static String TAG = "SystemAppMover";
+    private final static String PERMISSION = "android.permission.DUMP";
+    private final static String RESULT_FILE = "move_result.json";
+
+    public MoveService() {
+        super("MoveService");
+    }
+
+    @Override
+    protected void onHandleIntent(final Intent intent) {
+        if (intent == null || !ACTION_MOVE.equals(intent.getAction())) return;
+        String[] packages = intent.getStringArrayExtra(EXTRA_PACKAGES);
+        if (packages == null) {
+            // also accept a single comma separated string, as sent by --es
+            String list = intent.getStringExtra(EXTRA_PACKAGES);
+            packages = list != null ? list.split(",") : new String[0];
+        }
+        String direction = intent.getStringExtra(EXTRA_DIRECTION);
+        String result;
+        try {
+            result = move(packages, direction).toString();
+        } catch (JSONException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            try {
+                result = new JSONObject().put("error", String.valueOf(e.getMessage())).toString();
+            } catch (JSONException e2) {
+                result = "{}";
+            }
+        }
+        publish(result);
+    }
+
+    /**
+     * Moves the given apps
+     *
+     * @param packages  the package names
+     * @param direction "system", "data" or null
+     * @return the result object
+     */
+    private JSONObject move(final String[] packages, final String direction)
+            throws JSONException {
+        JSONObject result = new JSONObject();
+        if (direction != null && !"system".equals(direction) && !"data".equals(direction)) {
+            return result.put("error", "Unknown direction: " + direction);
+        }
+        String tools = getShellTools();
+        if (tools == null) {
+            return result.put("error", "No root access or neither busybox nor toybox found");
+        }
+        MoveEngine engine = new MoveEngine(this, tools);
+        List<MoveJournal.Entry> recovered;
+        try {
+            recovered = engine.recover();
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            return result.put("error", "Could not recover interrupted moves: " + e.getMessage());
+        }
+
+        PackageManager pm = getPackageManager();
+        PendingMoves pending = new PendingMoves(this);
+        pending.prune(pm);
+        if (!recovered.isEmpty()) result.put("recovered", toJson(recovered, pending));
+        Collator collator = AppEntry.createCollator();
+        // keeps the order of the request
+        Map<String, JSONObject> status = new LinkedHashMap<String, JSONObject>(packages.length);
+        List<Move> moves = new ArrayList<Move>(packages.length);
+        for (String pkg : packages) {
+            pkg = pkg.trim();
+            if (pkg.length() == 0 || status.containsKey(pkg)) continue;
+            JSONObject s = new JSONObject().put("package", pkg);
+            status.put(pkg, s);
+            String movedTo = pending.get(pkg);
+            if (movedTo != null) {
+                // the package manager still knows the old path until the reboot
+                s.put("status", "rejected").put("error",
+                        "This app was already moved to " + movedTo + ", please reboot before " +
+                                "moving it again");
+                continue;
+            }
+            AppEntry entry;
+            try {
+                entry = AppEntry.create(pm.getPackageInfo(pkg, 0), pm, collator);
+            } catch (PackageManager.NameNotFoundException e) {
+                s.put("status", "not_found");
+                continue;
+            }
+            Move m = Move.prepare(entry, pm, getPackageName());
+            if (direction != null && m.toSystem != "system".equals(direction)) {
+                s.put("status", "skipped");
+            } else if (m.error != null) {
+                s.put("status", "rejected").put("error", m.error);
+            } else {
+                if (m.warning != null) s.put("warning", m.warning);
+                moves.add(m);
+            }
+        }
+
+        if (!moves.isEmpty()) {
+            for (MoveEngine.Result r : engine.run(moves, new MoveEngine.Listener() {
+                @Override
+                public void onStage(final Move move, final MoveEngine.Stage stage) {
+                }
+
+                @Override
+                public void onStageDone(final Move move, final MoveEngine.Stage stage,
+                                        final long duration) {
+                }
+
+                @Override
+                public void onProgress(final long bytes, final long total) {
+                }
+
+                @Override
+                public boolean isCancelRequested() {
+                    return false;
+                }
+            })) {
+                JSONObject s = status.get(r.move.app.packageName);
+                if (r.error == null) {
+                    s.put("status", "moved").put("target", r.move.target);
+                    pending.add(r.move.app.packageName, r.move.target);
+                } else {
+                    s.put("status", "failed").put("error", r.error);
+                }
+            }
+        }
+
+        JSONArray results = new JSONArray();
+        for (JSONObject s : status.values()) {
+            results.put(s);
+        }
+        return result.put("results", results).put("reboot_required", !pending.isEmpty());
+    }
+
+    /**
+     * Adds the interrupted moves which were finished by the recovery to the pending moves
+     *
+     * @param recovered the moves returned by MoveEngine.recover
+     * @param pending   the pending moves
+     * @return the status of every interrupted move
+     */
+    private static JSONArray toJson(final List<MoveJournal.Entry> recovered,
+                                    final PendingMoves pending) throws JSONException {
+        JSONArray results = new JSONArray();
+        for (MoveJournal.Entry e : recovered) {
+            JSONObject s = new JSONObject().put("package", e.getPackageName());
+            if (e.failed) {
+                s.put("status", "failed").put("error", "Could not clean up " +
+                        (e.committed ? e.source : e.target) + ", this is retried on the next start");
+            } else if (e.committed) {
+                pending.add(e.getPackageName(), e.target);
+                s.put("status", "moved").put("target", e.target);
+            } else {
+                s.put("status", "rolled_back");
+            }
+            results.put(s);
+        }
+        return results;
+    }
+
+    /**
+     * @return the prefix for shell tools or null, if there is no root access or the tools are
+     * missing
+     */
+    private String getShellTools() {
+        CapabilityProbe.Capabilities capabilities = new CapabilityProbe(this).probe(true);
+        if (!capabilities.root || !capabilities.access) return null;
+        if (capabilities.busybox != null) return "busybox ";
+        // since Android 6, toybox provides all the tools we need
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? "" : null;
+    }
+
+    private void publish(final String result) {
+        Log.i(TAG, result);
+        File dir = getExternalFilesDir(null);
+        if (dir != null) {
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(new File(dir, RESULT_FILE));
+                out.write(result.getBytes("UTF-8"));
+            } catch (IOException e) {
+                if (BuildConfig.DEBUG) Logger.log(e);
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        if (BuildConfig.DEBUG) Logger.log(e);
+                    }
+                }
+            }
+        }
+        sendBroadcast(new Intent(ACTION_RESULT).putExtra(EXTRA_RESULT, result), PERMISSION);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.app.ProgressDialog;
+import android.content.DialogInterface;
+import android.os.AsyncTask;
+import android.view.View;
+
+import java.util.List;
+
+/**
+ * Moves one or more apps in the background and asks for a reboot afterwards.
+ * <p/>
+ * Shows the current stage, the timings of the finished stages and the copied bytes while the apps
+ * are moved. The user can cancel the moves until the source of an app is removed.
+ */
+public class MoveTask extends AsyncTask<Void, Void, List<MoveEngine.Result>>
+        implements MoveEngine.Listener {
+
+    private final MoverActivity activity;
+    private final List<Move> moves;
+    private ProgressDialog progress;
+
+    private volatile boolean cancelled;
+    private volatile String message;
+    private volatile long copied, total;
+    private final StringBuilder timings = new StringBuilder();
+
+    public MoveTask(final MoverActivity a, final List<Move> m) {
+        activity = a;
+        moves = m;
+    }
+
+    @Override
+    protected void onPreExecute() {
+        progress = new ProgressDialog(activity);
+        progress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        progress.setProgressNumberFormat("%1d/%2d kB");
+        progress.setCancelable(false);
+        progress.setMessage(moves.size() == 1 ? "Moving " + moves.get(0).appName :
+                "Moving " + moves.size() + " apps");
+        progress.setButton(DialogInterface.BUTTON_NEGATIVE,
+                activity.getString(android.R.string.cancel), (DialogInterface.OnClickListener) null);
+        progress.show();
+        // set the listener after show(), so that clicking the button does not close the dialog
+        progress.getButton(DialogInterface.BUTTON_NEGATIVE)
+                .setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(final View v) {
+                        cancelled = true;
+                        v.setEnabled(false);
+                        progress.setMessage("Cancelling...");
+                    }
+                });
+    }
+
+    @Override
+    protected List<MoveEngine.Result> doInBackground(Void... params) {
+        return new MoveEngine(activity, activity.shellTools).run(moves, this);
+    }
+
+    @Override
+    protected void onProgressUpdate(Void... values) {
+        if (!cancelled) progress.setMessage(message);
+        progress.setMax((int) (total / 1024));
+        progress.setProgress((int) (Math.min(copied, total) / 1024));
+    }
+
+    @Override
+    public void onStage(final Move move, final MoveEngine.Stage stage) {
+        if (move != null && stage == MoveEngine.Stage.COPY) timings.setLength(0);
+        message = (move != null ? move.appName + ": " : "") + stage.description + "..." + timings;
+        publishProgress();
+    }
+
+    @Override
+    public void onStageDone(final Move move, final MoveEngine.Stage stage, final long duration) {
+        timings.append("\n").append(stage.description).append(": ").append(duration)
+                .append(" ms");
+    }
+
+    @Override
+    public void onProgress(final long bytes, final long total) {
+        this.copied = bytes;
+        this.total = total;
+        publishProgress();
+    }
+
+    @Override
+    public boolean isCancelRequested() {
+        return cancelled;
+    }
+
+    @Override
+    protected void onPostExecute(final List<MoveEngine.Result> results) {
+        try {
+            progress.cancel();
+        } catch (IllegalArgumentException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+        }
+        StringBuilder errors = new StringBuilder();
+        int moved = 0;
+        String movedName = null;
+        for (MoveEngine.Result r : results) {
+            if (r.error == null) {
+                activity.index.put(r.move.entry.moved(r.move.target));
+                movedName = r.move.appName;
+                activity.pending.add(r.move.app.packageName, r.move.target);
+                moved++;
+            } else if (!MoveEngine.CANCELLED.equals(r.error)) {
+                if (errors.length() > 0) errors.append("\n\n");
+                if (moves.size() > 1) errors.append(r.move.appName).append(": ");
+                errors.append(r.error);
+            }
+        }
+        if (errors.length() > 0) activity.showErrorDialog(errors.toString());
+        if (moved > 0) activity.invalidateOptionsMenu();
+        if (moved == 1) {
+            activity.showRebootDialog(movedName + " successfully moved");
+        } else if (moved > 1) {
+            activity.showRebootDialog(moved + " apps successfully moved");
+        }
+    }
+}
@@ -27,31 +27,54 @@ import android.os.Handler;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.app.AppCompatDialog;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
+import android.widget.EditText;
 import android.widget.TextView;
 
 import com.stericson.RootTools.RootTools;
 
-import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The main activity.
  * <p/>
- * All the logic starts in the AppPicker, which is started from the checkForRoot
- * method if root is available
+ * The AppPicker loads the apps while the checkForRoot method checks for root access. Apps can only
+ * be moved once root access is granted.
  */
 public class MoverActivity extends AppCompatActivity {
 
-    public final static String SYSTEM_FOLDER_1 = "/system/priv-app/";
-    public final static String SYSTEM_FOLDER_2 = "/system/app/";
+    public final static String SYSTEM_FOLDER_1 = MovePlanner.SYSTEM_FOLDER_1;
+    public final static String SYSTEM_FOLDER_2 = MovePlanner.SYSTEM_FOLDER_2;
 
     public final static String SYSTEM_DIR_TARGET =
             Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? SYSTEM_FOLDER_1 : SYSTEM_FOLDER_2;
 
-    public static boolean SHOW_SYSTEM_APPS = false;
+    final AppIndex<AppEntry> index = new AppIndex<AppEntry>();
+    /**
+     * Prefix for the shell tools used to move apps, "busybox " or "" to use the system tools
+     */
+    String shellTools = "busybox ";
+    /**
+     * true, once root access and the shell tools are available
+     */
+    boolean canMove;
+    PendingMoves pending;
+    InventorySnapshot snapshot;
+    IconCache iconCache;
+    private PackageReceiver packageReceiver;
 
     /**
      * Shows an error dialog with the specified text
@@ -73,6 +96,65 @@ public class MoverActivity extends AppCompatActivity {
         builder.create().show();
     }
 
+    /**
+     * Asks the user to reboot to apply all pending moves
+     *
+     * @param text the text describing the moved apps
+     */
+    void showRebootDialog(final String text) {
+        final Map<String, String> moved = pending.getAll();
+        AlertDialog.Builder b2 = new AlertDialog.Builder(this);
+        long saved = Reboot.getTimeSaved(this) / 1000;
+        b2.setMessage(text + ", you need to reboot your device to apply " +
+                (moved.size() == 1 ? "the move" : "all " + moved.size() + " moves") +
+                ".\nReboot now? You can also move more apps first and reboot later from the menu." +
+                "\n\n" +
+                "A soft reboot only restarts Android, which is much faster. If the apps are not " +
+                "found afterwards, the device is fully rebooted." +
+                (saved > 0 ? "\nSoft reboots saved " + saved + " s so far." : ""));
+        b2.setPositiveButton(android.R.string.yes, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(final DialogInterface dialog, int which) {
+                reboot(dialog, moved, false);
+            }
+        });
+        b2.setNeutralButton("Soft reboot", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(final DialogInterface dialog, int which) {
+                reboot(dialog, moved, true);
+            }
+        });
+        b2.setNegativeButton("Later", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(final DialogInterface dialog, int which) {
+                if (BuildConfig.DEBUG) Logger.log("no reboot");
+                try {
+                    dialog.dismiss();
+                } catch (Exception e) {
+                }
+            }
+        });
+        b2.create().show();
+    }
+
+    private void reboot(final DialogInterface dialog, final Map<String, String> moved,
+                        final boolean soft) {
+        try {
+            dialog.dismiss();
+        } catch (Exception e) {
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (soft) {
+                    Reboot.soft(MoverActivity.this, moved);
+                } else {
+                    Reboot.full(MoverActivity.this, moved);
+                }
+            }
+        }).start();
+    }
+
     /**
      * Shows another warning when enabling the 'show system apps' option
      */
@@ -142,23 +224,182 @@ public class MoverActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
         RootTools.debugMode = false;
-        checkForRoot();
+        Logger.init(this);
+        pending = new PendingMoves(this);
+        snapshot = new InventorySnapshot(this);
+        iconCache = new IconCache(this, snapshot);
+        RecyclerView list = (RecyclerView) findViewById(R.id.apps);
+        list.setLayoutManager(new LinearLayoutManager(this));
+        EfficientAdapter adapter = new EfficientAdapter(this, index, iconCache);
+        adapter.setClickListener(new AppClickListener(this, adapter));
+        list.setAdapter(adapter);
+        ((EditText) findViewById(R.id.search)).addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(final Editable s) {
+                index.setQuery(s.toString());
+            }
+        });
+        packageReceiver = new PackageReceiver(this);
+        registerReceiver(packageReceiver, PackageReceiver.createFilter());
+        // the apps can be loaded without root, so don't wait for the root check
+        new AppPicker(this).execute();
+        checkForRoot(true);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(packageReceiver);
+        iconCache.shutdown();
+        RootShell.closeRoot();
     }
 
     /**
-     * Uses the RootTools library to check for root and busybox
+     * Rolls back or finishes moves which were interrupted when the app died. Apps can only be
+     * moved afterwards.
      */
-    private void checkForRoot() {
+    private void recoverInterruptedMoves() {
+        final Handler h = new Handler();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<MoveJournal.Entry> recovered;
+                String error = null;
+                try {
+                    recovered = new MoveEngine(MoverActivity.this, shellTools).recover();
+                } catch (Exception e) {
+                    if (BuildConfig.DEBUG) Logger.log(e);
+                    recovered = Collections.emptyList();
+                    error = "Could not recover interrupted moves: " + e.getMessage();
+                }
+                final List<MoveJournal.Entry> result = recovered;
+                final String errorMessage = error;
+                h.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (errorMessage != null) {
+                            showErrorDialog(errorMessage);
+                            return;
+                        }
+                        canMove = true;
+                        StringBuilder rolledBack = new StringBuilder();
+                        StringBuilder failed = new StringBuilder();
+                        int finished = 0;
+                        for (MoveJournal.Entry e : result) {
+                            if (e.failed) {
+                                failed.append("\n").append(e.source);
+                            } else if (e.committed) {
+                                pending.add(e.getPackageName(), e.target);
+                                AppEntry entry = index.find(e.getPackageName());
+                                if (entry != null) index.put(entry.moved(e.target));
+                                finished++;
+                            } else {
+                                rolledBack.append("\n").append(e.source);
+                            }
+                        }
+                        if (rolledBack.length() > 0) {
+                            showErrorDialog("Moving these apps was interrupted and undone:" +
+                                    rolledBack);
+                        }
+                        if (failed.length() > 0) {
+                            showErrorDialog("Moving these apps was interrupted and could not " +
+                                    "be cleaned up, this is retried on the next start:" + failed);
+                        }
+                        if (finished > 0) {
+                            invalidateOptionsMenu();
+                            showRebootDialog(
+                                    finished + " interrupted move(s) successfully finished");
+                        }
+                    }
+                });
+            }
+        }).start();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(final Menu menu) {
+        getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.apply_reboot).setVisible(!pending.isEmpty());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(final MenuItem item) {
+        if (item.getItemId() == R.id.export_log) {
+            share("SystemAppMover log", Build.MANUFACTURER + " " + Build.MODEL + ", Android " +
+                    Build.VERSION.SDK_INT + "\n\n" + Logger.export(200));
+            return true;
+        } else if (item.getItemId() == R.id.apply_reboot) {
+            int count = pending.getAll().size();
+            showRebootDialog(count == 1 ? "1 app was moved" : count + " apps were moved");
+            return true;
+        } else if (item.getItemId() == R.id.metrics) {
+            new AlertDialog.Builder(this).setTitle("Metrics").setMessage(Metrics.toText())
+                    .setPositiveButton("Share JSON", new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(final DialogInterface dialog, int which) {
+                            share("SystemAppMover metrics", Metrics.toJson());
+                        }
+                    }).setNegativeButton(android.R.string.cancel, null).show();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void share(final String subject, final String text) {
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("text/plain");
+        send.putExtra(Intent.EXTRA_SUBJECT, subject);
+        send.putExtra(Intent.EXTRA_TEXT, text);
+        try {
+            startActivity(Intent.createChooser(send, "Share"));
+        } catch (ActivityNotFoundException e) {
+            showErrorDialog("No app found to share with");
+        }
+    }
+
+    /**
+     * Prints the metrics for 'adb shell dumpsys activity de.j4velin.systemappmover', add the
+     * argument 'json' to get them as JSON
+     */
+    @Override
+    public void dump(final String prefix, final FileDescriptor fd, final PrintWriter writer,
+                     final String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println("Metrics:");
+        if (args != null && args.length > 0 && "json".equals(args[args.length - 1])) {
+            writer.println(Metrics.toJson());
+        } else {
+            writer.println(Metrics.toText());
+        }
+    }
+
+    /**
+     * Uses the CapabilityProbe to check for root and busybox
+     *
+     * @param useCache true, to use a cached result since the last reboot
+     */
+    private void checkForRoot(final boolean useCache) {
         final ProgressDialog progress =
                 ProgressDialog.show(this, "", "Waiting for root access", true);
         progress.show();
         final TextView error = (TextView) findViewById(R.id.error);
         final Handler h = new Handler();
+        final CapabilityProbe probe = new CapabilityProbe(this);
         new Thread(new Runnable() {
             @Override
             public void run() {
-                boolean systemlessRoot = new File("/su").exists();
-                if (!systemlessRoot && !RootTools.isRootAvailable()) {
+                final CapabilityProbe.Capabilities capabilities = probe.probe(useCache);
+                if (!capabilities.root) {
                     if (!progress.isShowing()) return;
                     progress.cancel();
                     h.post(new Runnable() {
@@ -178,31 +419,37 @@ public class MoverActivity extends AppCompatActivity {
                     });
                     return;
                 }
-                final boolean root = systemlessRoot || RootTools.isAccessGiven();
                 if (!progress.isShowing()) return;
                 progress.cancel();
                 h.post(new Runnable() {
                     @Override
                     public void run() {
-                        if (root) {
+                        if (capabilities.access) {
                             ((CheckBox) findViewById(R.id.root)).setChecked(true);
                         } else {
                             error.setText("No root access granted - click here to recheck");
                             error.setOnClickListener(new View.OnClickListener() {
                                 @Override
                                 public void onClick(View v) {
-                                    checkForRoot();
+                                    checkForRoot(false);
                                 }
                             });
                             return;
                         }
 
-                        if (new File("/su/xbin/busybox").exists() ||
-                                RootTools.isBusyboxAvailable()) {
+                        boolean busybox = capabilities.busybox != null;
+                        // since Android 6, toybox provides all the tools we need
+                        if (busybox || Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                             CheckBox busyBox = (CheckBox) findViewById(R.id.busybox);
                             busyBox.setChecked(true);
-                            busyBox.setText("BusyBox " + RootTools.getBusyBoxVersion());
-                            new AppPicker(MoverActivity.this).execute();
+                            if (busybox) {
+                                busyBox.setText("BusyBox " + capabilities.busybox);
+                                shellTools = "busybox ";
+                            } else {
+                                busyBox.setText("Toybox");
+                                shellTools = "";
+                            }
+                            recoverInterruptedMoves();
                             if (!getSharedPreferences("settings", MODE_PRIVATE)
                                     .getBoolean("warningRead", false)) {
                                 showWarningDialog();
@@ -216,8 +463,7 @@ public class MoverActivity extends AppCompatActivity {
                                         public void onCheckedChanged(
                                                 final CompoundButton buttonView,
                                                 boolean isChecked) {
-                                            SHOW_SYSTEM_APPS = isChecked;
-                                            new AppPicker(MoverActivity.this).execute();
+                                            index.setShowSystem(isChecked);
                                             if (isChecked) {
                                                 String warning =
                                                         "Moving system apps is NOT recommended and will most definitely damage something on your system when doing so.";
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+
+/**
+ * Keeps the AppIndex up to date while the app is running, so installing, updating or removing
+ * an app does not require to load the whole app list again.
+ * <p/>
+ * Registered by the MoverActivity while it is running.
+ */
+public class PackageReceiver extends BroadcastReceiver {
+
+    private final MoverActivity activity;
+    private final Handler handler = new Handler();
+
+    public PackageReceiver(final MoverActivity a) {
+        activity = a;
+    }
+
+    /**
+     * @return the filter for all package broadcasts this receiver handles
+     */
+    static IntentFilter createFilter() {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        return filter;
+    }
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        if (intent.getData() == null) return;
+        final String packageName = intent.getData().getSchemeSpecificPart();
+        // an update is sent as REMOVED + ADDED with EXTRA_REPLACING, followed by REPLACED
+        boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+        String action = intent.getAction();
+        if (BuildConfig.DEBUG) Logger.log("package broadcast: " + action + " " + packageName);
+        if (Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
+            if (!replacing) activity.index.remove(packageName);
+        } else if (Intent.ACTION_PACKAGE_REPLACED.equals(action) ||
+                (Intent.ACTION_PACKAGE_ADDED.equals(action) && !replacing)) {
+            final PackageManager pm = activity.getPackageManager();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        AppEntry created = AppEntry.create(pm.getPackageInfo(packageName, 0),
+                                pm, AppEntry.createCollator());
+                        // keep the app marked until the reboot applies its move
+                        String target = activity.pending.get(packageName);
+                        final AppEntry entry = target != null ? created.moved(target) : created;
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                activity.index.put(entry);
+                            }
+                        });
+                    } catch (PackageManager.NameNotFoundException e) {
+                        if (BuildConfig.DEBUG) Logger.log(e);
+                    }
+                }
+            }).start();
+        }
+    }
+}
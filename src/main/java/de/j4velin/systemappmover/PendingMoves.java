@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent queue of finished moves which wait for a reboot.
+ * <p/>
+ * The package manager only picks up a moved app after a reboot, so many apps can be moved and
+ * applied with a single reboot. A move stays in the queue until the package manager reports the
+ * app at its new location, which survives restarts of this app.
+ */
+public class PendingMoves {
+
+    private final static String PREFS = "pending";
+
+    private final SharedPreferences prefs;
+
+    public PendingMoves(final Context c) {
+        prefs = c.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Adds a finished move
+     *
+     * @param packageName the package name of the moved app
+     * @param target      the new path of the app
+     */
+    synchronized void add(final String packageName, final String target) {
+        prefs.edit().putString(packageName, target).apply();
+    }
+
+    /**
+     * @param packageName the package name
+     * @return the new path of the app or null, if no move of the app is pending
+     */
+    synchronized String get(final String packageName) {
+        return prefs.getString(packageName, null);
+    }
+
+    /**
+     * @return all pending moves: package name -> new path
+     */
+    @SuppressWarnings("unchecked")
+    synchronized Map<String, String> getAll() {
+        return new HashMap<String, String>((Map<String, String>) prefs.getAll());
+    }
+
+    synchronized boolean isEmpty() {
+        return prefs.getAll().isEmpty();
+    }
+
+    /**
+     * Removes all moves which were applied by a reboot and apps which are not installed anymore.
+     * Must not be called on the UI thread
+     *
+     * @param pm the PackageManager
+     */
+    synchronized void prune(final PackageManager pm) {
+        SharedPreferences.Editor edit = prefs.edit();
+        for (Map.Entry<String, String> e : getAll().entrySet()) {
+            try {
+                if (!isInstalledFrom(pm.getApplicationInfo(e.getKey(), 0).sourceDir,
+                        e.getValue())) {
+                    continue;
+                }
+            } catch (PackageManager.NameNotFoundException ex) {
+                if (BuildConfig.DEBUG) Logger.log(e.getKey() + " not installed anymore");
+            }
+            if (BuildConfig.DEBUG) Logger.log("move of " + e.getKey() + " applied");
+            edit.remove(e.getKey());
+        }
+        edit.commit();
+    }
+
+    /**
+     * Checks if an app is installed from the target of its move
+     *
+     * @param sourceDir the path of the installed apk
+     * @param target    the target of the move, the apk itself or the directory of the app
+     * @return true, if the apk is the target or inside the target directory
+     */
+    static boolean isInstalledFrom(final String sourceDir, final String target) {
+        // a plain prefix would also match /data/app/Example2 for the target /data/app/Example
+        return sourceDir.equals(target) || sourceDir.startsWith(target + "/");
+    }
+}
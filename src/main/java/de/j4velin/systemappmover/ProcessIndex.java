@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.app.ActivityManager;
+import android.app.ActivityManager.RunningAppProcessInfo;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Maps package names to the ids of their running processes.
+ * <p/>
+ * The index is built in a single pass over the running processes and can then be used to look up
+ * and kill the processes of any number of apps. Since Android 5.1, the ActivityManager only
+ * returns the processes of this app, so the command lines in /proc are read as well if a root
+ * shell is available.
+ */
+public class ProcessIndex {
+
+    /**
+     * Prints "/proc/[pid]/cmdline [process name]" for every process, without starting any
+     * additional processes. The command line of app processes is the process name only.
+     */
+    private final static String SCAN_COMMAND =
+            "for p in /proc/[0-9]*/cmdline; do read -r n < $p; echo \"$p $n\"; done 2>/dev/null";
+
+    private final Map<String, Set<Integer>> pids = new HashMap<String, Set<Integer>>();
+
+    private ProcessIndex() {
+    }
+
+    /**
+     * Scans the running processes
+     *
+     * @param c     the context
+     * @param shell the root shell to read the process names from /proc or null, to only use the
+     *              ActivityManager
+     * @return the index
+     */
+    static ProcessIndex scan(final Context c, final RootShell shell) {
+        ProcessIndex index = new ProcessIndex();
+        List<RunningAppProcessInfo> running =
+                ((ActivityManager) c.getSystemService(Context.ACTIVITY_SERVICE))
+                        .getRunningAppProcesses();
+        if (running != null) {
+            for (RunningAppProcessInfo p : running) {
+                index.add(p.processName, p.pid);
+                for (String pkg : p.pkgList) {
+                    index.add(pkg, p.pid);
+                }
+            }
+        }
+        if (shell != null) {
+            try {
+                RootShell.Result result = shell.run(SCAN_COMMAND, 5000);
+                for (String line : result.stdout) {
+                    int start = "/proc/".length();
+                    int end = line.indexOf('/', start);
+                    int space = line.indexOf(' ', end);
+                    if (end < 0 || space < 0 || space == line.length() - 1) continue;
+                    try {
+                        index.add(line.substring(space + 1),
+                                Integer.parseInt(line.substring(start, end)));
+                    } catch (NumberFormatException e) {
+                        // not a process directory
+                    }
+                }
+            } catch (Exception e) {
+                if (BuildConfig.DEBUG) Logger.log(e);
+            }
+        }
+        // never kill ourselves
+        for (Set<Integer> set : index.pids.values()) {
+            set.remove(android.os.Process.myPid());
+        }
+        return index;
+    }
+
+    /**
+     * Adds a process. Additional processes of an app (named "package:name") are added for the
+     * package.
+     */
+    private void add(final String processName, final int pid) {
+        if (processName == null) return;
+        int colon = processName.indexOf(':');
+        String key = colon > 0 ? processName.substring(0, colon) : processName;
+        Set<Integer> set = pids.get(key);
+        if (set == null) {
+            set = new HashSet<Integer>(2);
+            pids.put(key, set);
+        }
+        set.add(pid);
+    }
+
+    /**
+     * Finds the running processes of an app
+     *
+     * @param app the app
+     * @return the process ids, might be empty
+     */
+    Set<Integer> find(final ApplicationInfo app) {
+        Set<Integer> result = new HashSet<Integer>(2);
+        Set<Integer> set = pids.get(app.packageName);
+        if (set != null) result.addAll(set);
+        if (app.processName != null) {
+            int colon = app.processName.indexOf(':');
+            set = pids.get(colon > 0 ? app.processName.substring(0, colon) : app.processName);
+            if (set != null) result.addAll(set);
+        }
+        return result;
+    }
+
+    /**
+     * Kills all running processes of the given apps with a single command and removes them from
+     * the index
+     *
+     * @param apps  the apps
+     * @param shell the root shell
+     * @return the number of killed processes
+     */
+    int kill(final Collection<ApplicationInfo> apps, final RootShell shell)
+            throws IOException, TimeoutException {
+        Set<Integer> toKill = new HashSet<Integer>();
+        for (ApplicationInfo app : apps) {
+            toKill.addAll(find(app));
+            pids.remove(app.packageName);
+        }
+        if (toKill.isEmpty()) return 0;
+        StringBuilder command = new StringBuilder("kill -9");
+        for (Integer pid : toKill) {
+            command.append(' ').append(pid);
+        }
+        RootShell.Result result = shell.run(command.toString(), 5000);
+        if (BuildConfig.DEBUG) Logger.log(command + " -> " + result.exitCode);
+        return toKill.size();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reboots the device to make the package manager pick up moved apps.
+ * <p/>
+ * A soft reboot only restarts the Android framework with 'setprop ctl.restart zygote'. The
+ * package manager scans all app directories again when it starts, so that is usually enough and
+ * much faster than a full reboot. The moved apps are remembered before rebooting and checked
+ * when the boot is completed: if an app was not found at its new location after a soft reboot,
+ * the device is fully rebooted.
+ * <p/>
+ * The time from the reboot request until the boot is completed is measured for both kinds of
+ * reboots, to tell how much time the soft reboots saved.
+ */
+public class Reboot {
+
+    private final static String PREFS = "reboot";
+    private final static String SOFT = "soft", FULL = "full";
+    /**
+     * Duration of a full reboot to assume until one was measured, in ms
+     */
+    private final static long DEFAULT_FULL_DURATION = 60000;
+    /**
+     * Longer durations are not measured, as the device was probably turned off in between
+     */
+    private final static long MAX_DURATION = 10 * 60000;
+
+    private Reboot() {
+    }
+
+    /**
+     * Restarts the Android framework and falls back to a full reboot, if that fails.
+     * Must not be called on the UI thread
+     *
+     * @param c     the context
+     * @param moved the moved apps: package name -> new path
+     */
+    static void soft(final Context c, final Map<String, String> moved) {
+        if (BuildConfig.DEBUG) Logger.log("soft reboot");
+        remember(c, SOFT, moved);
+        try {
+            RootShell.Result result = RootShell.getRoot().run("setprop ctl.restart zygote", 5000);
+            if (result.exitCode == 0) return;
+            if (BuildConfig.DEBUG) Logger.log("soft reboot failed: " + result.stderr);
+        } catch (Exception e) {
+            // if the framework restarted, this process would have been killed with it, so it
+            // did not happen, for example because 'su' could not be started
+            if (BuildConfig.DEBUG) Logger.log(e);
+        }
+        full(c, moved);
+    }
+
+    /**
+     * Reboots the device. Must not be called on the UI thread
+     *
+     * @param c     the context
+     * @param moved the moved apps: package name -> new path
+     */
+    static void full(final Context c, final Map<String, String> moved) {
+        if (BuildConfig.DEBUG) Logger.log("reboot now");
+        remember(c, FULL, moved);
+        c.sendBroadcast(new Intent("de.j4velin.ACTION_SHUTDOWN"));
+        try {
+            RootShell shell = RootShell.getRoot();
+            shell.run("am broadcast -a android.intent.action.ACTION_SHUTDOWN", 5000);
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+            }
+            shell.run("reboot", 5000);
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+        }
+    }
+
+    /**
+     * Called once the device has booted: checks if the moved apps were found at their new
+     * location and measures the duration of the reboot. Must not be called on the UI thread
+     *
+     * @param c the context
+     */
+    static void onBootCompleted(final Context c) {
+        SharedPreferences prefs = c.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        String kind = prefs.getString("kind", null);
+        if (kind == null) return;
+        long duration = System.currentTimeMillis() - prefs.getLong("requested", 0);
+        Map<String, String> moved = decode(prefs.getString("moved", ""));
+        SharedPreferences.Editor edit = prefs.edit().remove("kind").remove("requested")
+                .remove("moved");
+
+        new PendingMoves(c).prune(c.getPackageManager());
+        if (SOFT.equals(kind) && !isConfirmed(c.getPackageManager(), moved)) {
+            edit.commit();
+            full(c, moved);
+            return;
+        }
+        if (duration > 0 && duration < MAX_DURATION) {
+            Logger.log(kind.toUpperCase(Locale.US) + "_REBOOT", null, duration);
+            long average = prefs.getLong(kind, -1);
+            edit.putLong(kind, average < 0 ? duration : (average + duration) / 2);
+            if (SOFT.equals(kind)) {
+                long saved = prefs.getLong(FULL, DEFAULT_FULL_DURATION) - duration;
+                if (saved > 0) edit.putLong("saved", prefs.getLong("saved", 0) + saved);
+            }
+        }
+        edit.commit();
+    }
+
+    /**
+     * @param c the context
+     * @return the total time the soft reboots saved compared to full reboots, in ms
+     */
+    static long getTimeSaved(final Context c) {
+        return c.getSharedPreferences(PREFS, Context.MODE_PRIVATE).getLong("saved", 0);
+    }
+
+    /**
+     * Checks if all moved apps are installed from their new location
+     */
+    private static boolean isConfirmed(final PackageManager pm, final Map<String, String> moved) {
+        for (Map.Entry<String, String> e : moved.entrySet()) {
+            try {
+                String sourceDir = pm.getApplicationInfo(e.getKey(), 0).sourceDir;
+                if (!PendingMoves.isInstalledFrom(sourceDir, e.getValue())) {
+                    if (BuildConfig.DEBUG) Logger.log(
+                            e.getKey() + " still installed from " + sourceDir);
+                    return false;
+                }
+            } catch (PackageManager.NameNotFoundException ex) {
+                if (BuildConfig.DEBUG) Logger.log(e.getKey() + " not found after soft reboot");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the reboot request synchronously, as the process is killed right afterwards
+     */
+    private static void remember(final Context c, final String kind,
+                                 final Map<String, String> moved) {
+        StringBuilder encoded = new StringBuilder();
+        for (Map.Entry<String, String> e : moved.entrySet()) {
+            encoded.append(e.getKey()).append('\t').append(e.getValue()).append('\n');
+        }
+        c.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit().putString("kind", kind)
+                .putLong("requested", System.currentTimeMillis())
+                .putString("moved", encoded.toString()).commit();
+    }
+
+    private static Map<String, String> decode(final String encoded) {
+        Map<String, String> moved = new LinkedHashMap<String, String>();
+        for (String line : encoded.split("\n")) {
+            int tab = line.indexOf('\t');
+            if (tab > 0) moved.put(line.substring(0, tab), line.substring(tab + 1));
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A long-lived shell process which executes commands one after another.
+ * <p/>
+ * Each command is followed by an unique end marker containing its exit code, so the end of a
+ * command is detected as soon as it finishes, without any fixed delays. All commands share the
+ * same process, so only the first command has to wait for the 'su' prompt.
+ */
+public class RootShell {
+
+    /**
+     * The output of a single command
+     */
+    public static class Result {
+        public final int exitCode;
+        public final List<String> stdout;
+        public final List<String> stderr;
+        /**
+         * The time the command took, in nanoseconds
+         */
+        public final long duration;
+
+        Result(final int exitCode, final List<String> stdout, final List<String> stderr,
+               final long duration) {
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.duration = duration;
+        }
+
+        public boolean isSuccess() {
+            return exitCode == 0;
+        }
+
+        /**
+         * @return stderr and stdout of the command, one line each
+         */
+        public String getOutput() {
+            StringBuilder sb = new StringBuilder();
+            for (String line : stderr) {
+                sb.append(line).append('\n');
+            }
+            for (String line : stdout) {
+                sb.append(line).append('\n');
+            }
+            return sb.toString().trim();
+        }
+    }
+
+    /**
+     * Put into the queues when the shell process ends, compared by identity
+     */
+    private final static String EOF = new String("EOF");
+
+    private static RootShell root;
+
+    private final Process process;
+    private final Writer stdin;
+    private final BlockingQueue<String> stdout = new LinkedBlockingQueue<String>();
+    private final BlockingQueue<String> stderr = new LinkedBlockingQueue<String>();
+    private final String marker = "__sam_" + UUID.randomUUID().toString().replace("-", "") + "_";
+    private int commandCount;
+    private long totalDuration;
+    private boolean closed;
+
+    /**
+     * Starts a new shell
+     *
+     * @param command the shell to start, for example "su" or "sh"
+     * @throws IOException if the shell can not be started
+     */
+    public RootShell(final String... command) throws IOException {
+        process = new ProcessBuilder(command).start();
+        stdin = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+        startReader(process.getInputStream(), stdout);
+        startReader(process.getErrorStream(), stderr);
+    }
+
+    /**
+     * Gets the shared root shell, starts a new one if there is none yet or the old one died
+     *
+     * @return the root shell
+     * @throws IOException if 'su' can not be started
+     */
+    public static synchronized RootShell getRoot() throws IOException {
+        if (root == null || !root.isAlive()) {
+            root = new RootShell("su");
+        }
+        return root;
+    }
+
+    /**
+     * Closes the shared root shell, if one is open
+     */
+    public static synchronized void closeRoot() {
+        if (root != null) {
+            root.close();
+            root = null;
+        }
+    }
+
+    /**
+     * Executes a command with a timeout of 10 seconds
+     *
+     * @param command the command, might contain multiple commands separated by ';' or '&&'
+     * @return the result
+     * @throws IOException      if the shell died
+     * @throws TimeoutException if the command did not finish within the timeout. The shell is
+     *                          closed afterwards, as its state is unknown
+     */
+    public Result run(final String command) throws IOException, TimeoutException {
+        return run(command, 10000);
+    }
+
+    /**
+     * Executes a command
+     *
+     * @param command the command, might contain multiple commands separated by ';' or '&&'
+     * @param timeout the timeout in milliseconds
+     * @return the result
+     * @throws IOException      if the shell died
+     * @throws TimeoutException if the command did not finish within the timeout. The shell is
+     *                          closed afterwards, as its state is unknown
+     */
+    public synchronized Result run(final String command, final long timeout)
+            throws IOException, TimeoutException {
+        if (closed) throw new IOException("Shell closed");
+        String end = marker + commandCount + ":";
+        long start = System.nanoTime();
+        // stdin is closed for the command, so it can not block on reading our next command
+        stdin.write("{\n" + command + "\n} </dev/null\necho \"" + end + " $?\"\necho \"" + end +
+                "\" >&2\n");
+        stdin.flush();
+
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        List<String> out = new ArrayList<String>();
+        String exit = readUntil(stdout, end, out, deadline);
+        List<String> err = new ArrayList<String>();
+        readUntil(stderr, end, err, deadline);
+
+        long duration = System.nanoTime() - start;
+        commandCount++;
+        totalDuration += duration;
+        Metrics.timeNanos("shell.command", duration);
+        int exitCode;
+        try {
+            exitCode = Integer.parseInt(exit.trim());
+        } catch (NumberFormatException e) {
+            exitCode = -1;
+        }
+        return new Result(exitCode, Collections.unmodifiableList(out),
+                Collections.unmodifiableList(err), duration);
+    }
+
+    /**
+     * @return the number of commands executed in this shell
+     */
+    public synchronized int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * @return the time of all commands executed in this shell, in nanoseconds
+     */
+    public synchronized long getTotalDuration() {
+        return totalDuration;
+    }
+
+    /**
+     * Ends the shell process
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            stdin.write("exit\n");
+            stdin.flush();
+            stdin.close();
+        } catch (IOException e) {
+            // already dead
+        }
+        process.destroy();
+    }
+
+    private boolean isAlive() {
+        if (closed) return false;
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Reads lines from the queue until the end marker is found
+     *
+     * @param queue    the queue to read from
+     * @param end      the end marker
+     * @param lines    the list to add the read lines to
+     * @param deadline the time by which the marker must be found, as System.nanoTime() value
+     * @return the rest of the marker line after the marker
+     */
+    private String readUntil(final BlockingQueue<String> queue, final String end,
+                             final List<String> lines, final long deadline)
+            throws IOException, TimeoutException {
+        while (true) {
+            String line;
+            try {
+                line = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                close();
+                throw new IOException("Interrupted");
+            }
+            if (line == null) {
+                close();
+                throw new TimeoutException("Command did not finish in time");
+            }
+            if (line == EOF) {
+                close();
+                throw new IOException("Shell died");
+            }
+            int index = line.indexOf(end);
+            if (index >= 0) {
+                // output without trailing newline ends up in front of the marker
+                if (index > 0) lines.add(line.substring(0, index));
+                return line.substring(index + end.length());
+            }
+            lines.add(line);
+        }
+    }
+
+    private static void startReader(final InputStream in, final BlockingQueue<String> queue)
+            throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        queue.add(line);
+                    }
+                } catch (IOException e) {
+                    // shell closed
+                } finally {
+                    queue.add(EOF);
+                }
+            }
+        }, "RootShell reader");
+        t.setDaemon(true);
+        t.start();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Builds and matches the search texts of the app list.
+ * <p/>
+ * A search text contains the normalized label, the initials of its words and the package name,
+ * separated by newlines. It is built once per app, so matching a query is a plain indexOf per
+ * query word.
+ */
+public class SearchText {
+
+    private final static Pattern MARKS = Pattern.compile("\\p{M}+");
+    private final static String[] NO_TOKENS = new String[0];
+
+    private SearchText() {
+    }
+
+    /**
+     * Creates the search text of an app
+     *
+     * @param label       the label of the app
+     * @param packageName the package name of the app
+     * @return the search text
+     */
+    static String create(final String label, final String packageName) {
+        String normalized = normalize(label);
+        StringBuilder searchText = new StringBuilder(normalized).append('\n');
+        boolean wordStart = true;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            boolean letter = Character.isLetterOrDigit(c);
+            if (letter && wordStart) searchText.append(c);
+            wordStart = !letter;
+        }
+        return searchText.append('\n').append(packageName.toLowerCase(Locale.ROOT)).toString();
+    }
+
+    /**
+     * Normalizes a text for searching: lower case and without accents
+     *
+     * @param text the text
+     * @return the normalized text
+     */
+    static String normalize(final String text) {
+        return MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param query a normalized query
+     * @return the words of the query
+     */
+    static String[] tokenize(final String query) {
+        return query.isEmpty() ? NO_TOKENS : query.split("\\s+");
+    }
+
+    /**
+     * @param searchText a search text created by {@link #create(String, String)}
+     * @param tokens     the words of the query
+     * @return true, if all words are contained in the search text
+     */
+    static boolean matches(final String searchText, final String[] tokens) {
+        for (String token : tokens) {
+            if (searchText.indexOf(token) < 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ApkTransferTest {
+
+    private final static long MB = 1024 * 1024;
+
+    @Test
+    public void timeoutGrowsWithSize() {
+        // 5 MB/s measured
+        ApkTransfer transfer = new ApkTransfer(null, "", 5 * MB / 1000f);
+        assertEquals(120000, transfer.getTimeout(10 * MB));
+        assertEquals(1600000, transfer.getTimeout(2000 * MB));
+    }
+
+    @Test
+    public void fastMeasurementsDontShortenTimeout() {
+        ApkTransfer fast = new ApkTransfer(null, "", 500 * MB / 1000f);
+        ApkTransfer unknown = new ApkTransfer(null, "", 0);
+        assertEquals(400000, fast.getTimeout(2000 * MB));
+        assertEquals(400000, unknown.getTimeout(2000 * MB));
+    }
+}
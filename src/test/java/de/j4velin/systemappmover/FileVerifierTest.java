@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileVerifierTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static File write(final File file, final String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void equalFiles() throws Exception {
+        File source = write(folder.newFile(), "apk");
+        assertTrue(FileVerifier.isCopy(source, write(folder.newFile(), "apk"), null, ""));
+        assertFalse(FileVerifier.isCopy(source, write(folder.newFile(), "apx"), null, ""));
+        assertFalse(FileVerifier.isCopy(source, write(folder.newFile(), "apk2"), null, ""));
+    }
+
+    @Test
+    public void emptyApkIsNoCopy() throws Exception {
+        assertFalse(FileVerifier.isCopy(folder.newFile(), folder.newFile(), null, ""));
+    }
+
+    @Test
+    public void directoryWithEmptyFile() throws Exception {
+        File source = folder.newFolder("source");
+        File target = folder.newFolder("target");
+        write(new File(source, "base.apk"), "apk");
+        write(new File(target, "base.apk"), "apk");
+        assertTrue(new File(source, "empty").createNewFile());
+        assertTrue(new File(target, "empty").createNewFile());
+        assertTrue(FileVerifier.isCopy(source, target, null, ""));
+
+        write(new File(target, "empty"), "not empty");
+        assertFalse(FileVerifier.isCopy(source, target, null, ""));
+    }
+}
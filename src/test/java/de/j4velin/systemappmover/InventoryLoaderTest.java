@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class InventoryLoaderTest {
+
+    /**
+     * A package with a label and a version
+     */
+    private static class Pkg {
+        final String name;
+        final String label;
+        final int version;
+
+        Pkg(final String name, final String label, final int version) {
+            this.name = name;
+            this.label = label;
+            this.version = version;
+        }
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final Pkg pkg;
+
+        Entry(final Pkg pkg) {
+            this.pkg = pkg;
+        }
+
+        @Override
+        public int compareTo(final Entry other) {
+            int result = pkg.label.compareTo(other.pkg.label);
+            return result != 0 ? result : pkg.name.compareTo(other.pkg.name);
+        }
+    }
+
+    /**
+     * Counts the loaded labels
+     */
+    private static class CountingPackages implements InventoryLoader.Packages<Pkg, Entry> {
+        final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public String getPackageName(final Pkg pkg) {
+            return pkg.name;
+        }
+
+        @Override
+        public Entry update(final Entry known, final Pkg pkg) {
+            return known.pkg.version == pkg.version ? known : null;
+        }
+
+        @Override
+        public Entry load(final Pkg pkg) {
+            loads.incrementAndGet();
+            return new Entry(pkg);
+        }
+    }
+
+    /**
+     * Collects the batches passed to the listener
+     */
+    private static class Batches implements InventoryLoader.Listener<Entry> {
+        final List<List<Entry>> batches = new ArrayList<List<Entry>>();
+
+        @Override
+        public void onLoaded(final List<Entry> batch) {
+            batches.add(new ArrayList<Entry>(batch));
+        }
+    }
+
+    private static List<Pkg> createPackages(final int size) {
+        List<Pkg> packages = new ArrayList<Pkg>(size);
+        for (int i = 0; i < size; i++) {
+            // labels in a different order than the package names
+            packages.add(new Pkg("com.example.app" + i, "App " + ((i * 7919) % size), 1));
+        }
+        return packages;
+    }
+
+    private static void assertSorted(final List<Entry> entries) {
+        List<Entry> sorted = new ArrayList<Entry>(entries);
+        Collections.sort(sorted);
+        assertEquals(sorted, entries);
+    }
+
+    private static Map<String, Entry> byName(final List<Entry> entries) {
+        Map<String, Entry> known = new HashMap<String, Entry>();
+        for (Entry e : entries) {
+            known.put(e.pkg.name, e);
+        }
+        return known;
+    }
+
+    @Test
+    public void everyLabelIsLoadedOnce() {
+        CountingPackages packages = new CountingPackages();
+        Batches batches = new Batches();
+        List<Entry> result = new InventoryLoader<Pkg, Entry>(packages, 4)
+                .load(createPackages(1000), Collections.<String, Entry>emptyMap(), batches);
+
+        assertEquals(1000, packages.loads.get());
+        assertEquals(1000, result.size());
+        assertSorted(result);
+        int loaded = 0;
+        for (List<Entry> batch : batches.batches) {
+            assertSorted(batch);
+            loaded += batch.size();
+        }
+        assertEquals(1000, loaded);
+    }
+
+    @Test
+    public void knownLabelsAreNotLoadedAgain() {
+        List<Pkg> installed = createPackages(100);
+        CountingPackages packages = new CountingPackages();
+        InventoryLoader<Pkg, Entry> loader = new InventoryLoader<Pkg, Entry>(packages, 4);
+        Map<String, Entry> known = byName(loader.load(installed,
+                Collections.<String, Entry>emptyMap(), new Batches()));
+        packages.loads.set(0);
+
+        Batches batches = new Batches();
+        List<Entry> result = loader.load(installed, known, batches);
+        assertEquals(0, packages.loads.get());
+        assertEquals(100, result.size());
+        assertSorted(result);
+        assertEquals(0, batches.batches.size());
+
+        // an updated and a new app
+        installed.set(10, new Pkg(installed.get(10).name, "Updated", 2));
+        installed.add(new Pkg("com.example.new", "New", 1));
+        result = loader.load(installed, known, batches);
+        assertEquals(2, packages.loads.get());
+        assertEquals(101, result.size());
+        assertSorted(result);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MovePlannerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final MovePlanner lollipop = new MovePlanner(21, MovePlanner.SYSTEM_FOLDER_1);
+    private final MovePlanner kitkat = new MovePlanner(19, MovePlanner.SYSTEM_FOLDER_2);
+
+    @Test
+    public void appDirectoryIsMovedWithSplitsAndLibraries() throws IOException {
+        File appDir = folder.newFolder("com.example-1");
+        String base = new File(appDir, "base.apk").getPath();
+        String split = new File(appDir, "split_config.arm64_v8a.apk").getPath();
+        File libDir = new File(appDir, "lib/arm64");
+        assertTrue(libDir.mkdirs());
+        File lib = new File(libDir, "libexample.so");
+        assertTrue(lib.createNewFile());
+
+        MovePlanner.Plan plan = lollipop.plan("com.example", "Example App", base,
+                new String[]{split}, libDir.getPath(), true);
+
+        assertTrue(plan.directory);
+        assertEquals(appDir.getPath(), plan.source);
+        assertEquals("/system/priv-app/ExampleApp", plan.target);
+        assertEquals(new HashSet<String>(Arrays.asList(base, split, lib.getPath())),
+                new HashSet<String>(plan.files));
+        assertNull(plan.warning);
+        assertEquals("system", plan.owner);
+    }
+
+    @Test
+    public void librariesOutsideOfTheAppDirectoryAreReported() throws IOException {
+        File appDir = folder.newFolder("com.example-1");
+        File libDir = folder.newFolder("app-lib");
+        assertTrue(new File(libDir, "libexample.so").createNewFile());
+
+        MovePlanner.Plan plan = lollipop.plan("com.example", "Example",
+                new File(appDir, "base.apk").getPath(), null, libDir.getPath(), true);
+
+        assertTrue(plan.directory);
+        assertEquals(1, plan.files.size());
+        assertTrue(plan.warning.contains(libDir.getPath()));
+    }
+
+    @Test
+    public void flatApkBeforeLollipop() throws IOException {
+        File libDir = folder.newFolder("com.example-1");
+        assertTrue(new File(libDir, "libexample.so").createNewFile());
+
+        MovePlanner.Plan toSystem = kitkat.plan("com.example", "Example",
+                "/data/app/com.example-1.apk", null, libDir.getPath(), true);
+        assertFalse(toSystem.directory);
+        assertEquals("/data/app/com.example-1.apk", toSystem.source);
+        assertEquals("/system/app/com.example-1.apk", toSystem.target);
+        assertEquals(Arrays.asList("/data/app/com.example-1.apk"), toSystem.files);
+        assertTrue(toSystem.warning.contains(libDir.getPath()));
+        assertNull(toSystem.owner);
+
+        // normal apps get their libraries extracted again on boot
+        MovePlanner.Plan toData = kitkat.plan("com.example", "Example",
+                "/system/app/Example.apk", null, "/data/app-lib/com.example-1", false);
+        assertFalse(toData.directory);
+        assertEquals("/data/app/Example.apk", toData.target);
+        assertNull(toData.warning);
+    }
+
+    @Test
+    public void asecApkIsMovedAlone() {
+        MovePlanner.Plan toSystem = kitkat.plan("com.example", "Example",
+                "/mnt/asec/com.example-1/pkg.apk", null, null, true);
+        assertFalse(toSystem.directory);
+        assertEquals("/mnt/asec/com.example-1/pkg.apk", toSystem.source);
+        assertEquals("/system/app/Example.apk", toSystem.target);
+
+        MovePlanner.Plan toData = lollipop.plan("com.example", "Example",
+                "/mnt/asec/com.example-1/pkg.apk", null, null, false);
+        assertFalse(toData.directory);
+        assertEquals("/data/app/com.example.apk", toData.target);
+    }
+
+    @Test
+    public void labelWithoutLettersFallsBackToPackageName() {
+        MovePlanner.Plan plan = kitkat.plan("com.example", "\u65e5\u672c \u2605",
+                "/mnt/asec/com.example-1/pkg.apk", null, null, true);
+        assertEquals("/system/app/com.example.apk", plan.target);
+    }
+
+    @Test
+    public void stagingPathIsNextToTarget() {
+        assertEquals("/system/priv-app/vmdlExample.tmp",
+                MovePlanner.getStagingPath("/system/priv-app/Example"));
+        assertEquals("/data/app/vmdlcom.example.apk.tmp",
+                MovePlanner.getStagingPath("/data/app/com.example.apk"));
+    }
+
+    @Test
+    public void installCommandForFile() {
+        MovePlanner.Plan plan = kitkat.plan("com.example", "Example",
+                "/data/app/com.example-1.apk", null, null, true);
+        assertEquals("busybox chmod 644 /system/app/vmdlcom.example-1.apk.tmp && busybox sync" +
+                        " && [ ! -e /system/app/com.example-1.apk ]" +
+                        " && busybox mv /system/app/vmdlcom.example-1.apk.tmp " +
+                        "/system/app/com.example-1.apk", plan.getInstallCommand("busybox "));
+    }
+
+    @Test
+    public void installCommandForDirectory() throws IOException {
+        File appDir = folder.newFolder("com.example-1");
+        MovePlanner.Plan plan = lollipop.plan("com.example", "Example",
+                new File(appDir, "base.apk").getPath(), null, null, false);
+        assertEquals("chmod -R u=rwX,go=rX /data/app/vmdlExample.tmp" +
+                " && chown -R system /data/app/vmdlExample.tmp" +
+                " && chgrp -R system /data/app/vmdlExample.tmp" +
+                " && sync && [ ! -e /data/app/Example ]" +
+                " && mv /data/app/vmdlExample.tmp /data/app/Example",
+                plan.getInstallCommand(""));
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PendingMovesTest {
+
+    @Test
+    public void installedFromTarget() {
+        assertTrue(PendingMoves.isInstalledFrom("/system/app/Example.apk",
+                "/system/app/Example.apk"));
+        assertTrue(PendingMoves.isInstalledFrom("/system/priv-app/Example/base.apk",
+                "/system/priv-app/Example"));
+        assertFalse(PendingMoves.isInstalledFrom("/system/priv-app/Example2/base.apk",
+                "/system/priv-app/Example"));
+        assertFalse(PendingMoves.isInstalledFrom("/system/app/Example.apk.bak",
+                "/system/app/Example.apk"));
+        assertFalse(PendingMoves.isInstalledFrom("/data/app/com.example-1/base.apk",
+                "/system/priv-app/Example"));
+    }
+}
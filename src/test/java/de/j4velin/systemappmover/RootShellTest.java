@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Thomas Hoffmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.j4velin.systemappmover;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RootShellTest {
+
+    private RootShell shell;
+
+    @Before
+    public void setUp() throws IOException {
+        shell = new RootShell("sh");
+    }
+
+    @After
+    public void tearDown() {
+        shell.close();
+    }
+
+    @Test
+    public void exitCodes() throws Exception {
+        assertTrue(shell.run("true").isSuccess());
+        RootShell.Result result = shell.run("false");
+        assertFalse(result.isSuccess());
+        assertEquals(1, result.exitCode);
+        assertEquals(42, shell.run("(exit 42)").exitCode);
+        // the exit code of the last command counts
+        assertEquals(0, shell.run("false; true").exitCode);
+        assertEquals(4, shell.getCommandCount());
+    }
+
+    @Test
+    public void stderrIsSeparated() throws Exception {
+        RootShell.Result result = shell.run("echo out; echo err >&2; echo out2");
+        assertEquals(Arrays.asList("out", "out2"), result.stdout);
+        assertEquals(Collections.singletonList("err"), result.stderr);
+        assertEquals("err\nout\nout2", result.getOutput());
+    }
+
+    @Test
+    public void outputWithoutTrailingNewline() throws Exception {
+        RootShell.Result result = shell.run("printf foo; printf bar >&2");
+        assertEquals(Collections.singletonList("foo"), result.stdout);
+        assertEquals(Collections.singletonList("bar"), result.stderr);
+        // the next command is not affected
+        assertEquals(Collections.singletonList("next"), shell.run("echo next").stdout);
+    }
+
+    @Test
+    public void commandsDoNotReadStdin() throws Exception {
+        assertEquals(Collections.<String>emptyList(), shell.run("cat").stdout);
+        assertEquals(Collections.singletonList("still running"),
+                shell.run("echo still running").stdout);
+    }
+
+    @Test
+    public void timeoutClosesShell() throws Exception {
+        try {
+            shell.run("sleep 5", 200);
+            fail("TimeoutException expected");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        try {
+            shell.run("true");
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected, the shell was closed
+        }
+    }
+
+    @Test
+    public void deadShell() throws Exception {
+        try {
+            shell.run("exit 0");
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            shell.run("true");
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}